@@ -3,6 +3,7 @@
 #include <stdlib.h>
 #include <string.h>
 #include <stdint.h>
+#include <sys/resource.h>
 
 #include "types.h"
 
@@ -27,8 +28,14 @@ Node root = 0;
 
 int allocs = 0;
 
+/* totals for the whole run, reported by gc_write_stats */
+long total_allocs = 0;
+long total_frees = 0;
+static const char* stats_file = 0;
+
 void* xmalloc(size_t n) {
 	allocs++;
+	total_allocs++;
 	void* result = malloc(n);
 	if (!result) {
 		fputs("gc: out of memory.\n",stderr);
@@ -40,10 +47,59 @@ void* xmalloc(size_t n) {
 
 void xfree(void *ptr) {
 	allocs--;
+	total_frees++;
 	free(ptr);
 	ptr = 0;
 }
 
+/* peak resident set size in kB. ru_maxrss survives exec on Linux, so the
+   value of the process that started us could be reported instead, VmHWM
+   in /proc is used when available */
+static long gc_peak_rss_kb() {
+	struct rusage usage;
+	char line[128];
+	long peak = -1;
+	FILE* f = fopen("/proc/self/status", "r");
+
+	if (f) {
+		while (fgets(line, sizeof(line), f)) {
+			if (sscanf(line, "VmHWM: %ld kB", &peak) == 1) {
+				break;
+			}
+		}
+		fclose(f);
+	}
+
+	if (peak < 0) {
+		getrusage(RUSAGE_SELF, &usage);
+		peak = usage.ru_maxrss;
+	}
+
+	return peak;
+}
+
+/* writes allocation counts and peak memory use to stats_file at exit */
+static void gc_write_stats() {
+	FILE* f = fopen(stats_file, "w");
+	if (!f) {
+		return;
+	}
+
+	fprintf(f, "allocations %ld\n", total_allocs);
+	fprintf(f, "frees %ld\n", total_frees);
+	fprintf(f, "peak_rss_kb %ld\n", gc_peak_rss_kb());
+	fclose(f);
+}
+
+/* runs before main, stats are only collected when DASH_RUNTIME_STATS
+   names the file to write them to */
+__attribute__((constructor)) static void gc_init_stats() {
+	stats_file = getenv("DASH_RUNTIME_STATS");
+	if (stats_file) {
+		atexit(gc_write_stats);
+	}
+}
+
 void int_releaseInterval(struct Interval* interval) {
 	xfree(interval);
 }
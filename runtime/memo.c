@@ -0,0 +1,141 @@
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+/* memo tables of the memoized functions. Each function has a global table
+   pointer, null until its first call. An entry maps the scalar arguments
+   of a call, each widened to 64 bits, to the result of the call, widened
+   the same way. Tables use open addressing and double when half full.
+   Without the memory for a table, calls are simply computed again. */
+
+/* entries a table stops growing at, further calls are computed again */
+#define MEMO_MAX_ENTRIES (1 << 22)
+#define MEMO_INITIAL_SIZE 64
+
+struct Memo {
+	int32_t args;
+	int32_t size;
+	int32_t count;
+	int64_t *keys;
+	int64_t *values;
+	char *used;
+};
+
+static uint64_t memo_hash(int64_t *key, int32_t n) {
+	uint64_t hash = 0x9e3779b97f4a7c15ULL;
+	int32_t i;
+	for (i = 0; i < n; i++) {
+		hash ^= (uint64_t) key[i];
+		hash ^= hash >> 33;
+		hash *= 0xff51afd7ed558ccdULL;
+		hash ^= hash >> 33;
+		hash *= 0xc4ceb9fe1a85ec53ULL;
+		hash ^= hash >> 33;
+	}
+	return hash;
+}
+
+/* slot of key in memo, or of the free slot it would go in */
+static int32_t memo_slot(struct Memo *memo, int64_t *key) {
+	int32_t mask = memo->size - 1;
+	int32_t slot = (int32_t) (memo_hash(key, memo->args) & mask);
+	while (memo->used[slot]
+			&& memcmp(&memo->keys[(int64_t) slot * memo->args], key, memo->args * sizeof(int64_t)) != 0)
+		slot = (slot + 1) & mask;
+	return slot;
+}
+
+static struct Memo* memo_create(int32_t args, int32_t size) {
+	struct Memo *memo = calloc(1, sizeof(struct Memo));
+	if (!memo)
+		return 0;
+
+	memo->args = args;
+	memo->size = size;
+	memo->count = 0;
+	memo->keys = calloc((size_t) size * args, sizeof(int64_t));
+	memo->values = calloc(size, sizeof(int64_t));
+	memo->used = calloc(size, 1);
+	if (!memo->keys || !memo->values || !memo->used) {
+		free(memo->keys);
+		free(memo->values);
+		free(memo->used);
+		free(memo);
+		return 0;
+	}
+	return memo;
+}
+
+static void memo_release(struct Memo *memo) {
+	free(memo->keys);
+	free(memo->values);
+	free(memo->used);
+	free(memo);
+}
+
+/* memo with twice the slots, memo itself if there is no memory for it */
+static struct Memo* memo_grow(struct Memo *memo) {
+	struct Memo *grown = memo_create(memo->args, memo->size * 2);
+	int32_t i;
+	if (!grown)
+		return memo;
+
+	for (i = 0; i < memo->size; i++) {
+		if (memo->used[i]) {
+			int64_t *key = &memo->keys[(int64_t) i * memo->args];
+			int32_t slot = memo_slot(grown, key);
+			memcpy(&grown->keys[(int64_t) slot * grown->args], key, grown->args * sizeof(int64_t));
+			grown->values[slot] = memo->values[i];
+			grown->used[slot] = 1;
+		}
+	}
+	grown->count = memo->count;
+
+	memo_release(memo);
+	return grown;
+}
+
+/* looks up the call with the n arguments in key, true and its result in
+   value if it was made before */
+int memo_get(void **table, int64_t *key, int32_t n, int64_t *value) {
+	struct Memo *memo = *table;
+	int32_t slot;
+	if (!memo)
+		return 0;
+
+	slot = memo_slot(memo, key);
+	if (!memo->used[slot])
+		return 0;
+
+	*value = memo->values[slot];
+	return 1;
+}
+
+/* records value as the result of the call with the n arguments in key */
+void memo_put(void **table, int64_t *key, int32_t n, int64_t value) {
+	struct Memo *memo = *table;
+	int32_t slot;
+	if (!memo) {
+		memo = memo_create(n, MEMO_INITIAL_SIZE);
+		if (!memo)
+			return;
+		*table = memo;
+	}
+
+	if (memo->count >= MEMO_MAX_ENTRIES)
+		return;
+	if (2 * (memo->count + 1) > memo->size) {
+		memo = memo_grow(memo);
+		*table = memo;
+		if (2 * (memo->count + 1) > memo->size)
+			return;
+	}
+
+	slot = memo_slot(memo, key);
+	if (!memo->used[slot]) {
+		memcpy(&memo->keys[(int64_t) slot * n], key, n * sizeof(int64_t));
+		memo->used[slot] = 1;
+		memo->count++;
+	}
+	memo->values[slot] = value;
+}
@@ -1,8 +1,6 @@
 grammar Dash;
 
 options {
-	backtrack = true;
-	memoize = true;
 	language = Java;
 	output = AST;
 	ASTLabelType = DashAST;
@@ -113,12 +111,17 @@ tokens {
 
 
 
+// The parser does not backtrack. Decisions that need more than a fixed
+// lookahead use syntactic predicates, or backtracking local to a rule, that
+// never span more than one declaration or statement header, so parsing
+// stays linear in the size of the program.
+
 program 
 	: line* EOF -> ^(PROGRAM line*)
 	;
   
 line
-	:	methodForwardDeclaration
+	:	(methodForwardDeclaration)=> methodForwardDeclaration
 	|	methodDeclaration
 	|	statement
 	;
@@ -132,12 +135,19 @@ type
 	;
 
 tupleType
-  : Tuple LPAREN tupleMember (',' tupleMember)+ RPAREN -> ^(Tuple tupleMember+)
-  | Tuple LPAREN tupleMember RPAREN  { emitErrorMessage("line " + $LPAREN.getLine() + ": tuples must have more than one element"); }
-  | Tuple LPAREN RPAREN              { emitErrorMessage("line " + $LPAREN.getLine() + ": tuples cannot be empty"); }
+  : Tuple LPAREN
+    ( tupleMember
+      ( (',' tupleMember)+ RPAREN -> ^(Tuple tupleMember+)
+      | RPAREN  { emitErrorMessage("line " + $LPAREN.getLine() + ": tuples must have more than one element"); }
+          -> Tuple LPAREN tupleMember RPAREN
+      )
+    | RPAREN    { emitErrorMessage("line " + $LPAREN.getLine() + ": tuples cannot be empty"); }
+        -> Tuple LPAREN RPAREN
+    )
   ;
   
 tupleMember
+options { backtrack = true; }
   // string
   : String ID? LBRACK expression RBRACK -> ^(FIELD_DECL Var["var"] ^(VECTOR CHARACTER_TYPE["character"] expression) ID?)
   | String ID? LBRACK MULTIPLY RBRACK -> ^(FIELD_DECL Var["var"] ^(VECTOR CHARACTER_TYPE["character"] INFERRED) ID?)
@@ -197,13 +207,16 @@ methodDeclaration
 function
 @init { Token id = null;}
 @after {if (id.getText().equals("main")) emitErrorMessage("error: main must be a procedure not a function");}
-  : Function ID LPAREN (functionParameter (',' functionParameter)*)? RPAREN Returns methodReturnType ASSIGN expression DELIM {id = $ID;}
-      -> ^(FUNCTION_DECL methodReturnType ID functionParameter* ^(Return expression))    
-  | Function ID LPAREN (functionParameter (',' functionParameter)*)? RPAREN Returns methodReturnType block {id = $ID;}
-      -> ^(FUNCTION_DECL methodReturnType ID functionParameter* block)
+  : Function ID LPAREN (functionParameter (',' functionParameter)*)? RPAREN Returns methodReturnType
+    ( ASSIGN expression DELIM {id = $ID;}
+        -> ^(FUNCTION_DECL methodReturnType ID functionParameter* ^(Return expression))    
+    | block {id = $ID;}
+        -> ^(FUNCTION_DECL methodReturnType ID functionParameter* block)
+    )
   ;
 
 functionParameter
+options { backtrack = true; }
   : Var primitiveType ID LBRACK MULTIPLY RBRACK 
       { emitErrorMessage("line " + $Var.getLine() + ": Function parameters cannot be declared as var."); }
   | Var primitiveType (Vector | Matrix)? ID LBRACK (expression|MULTIPLY) (',' (expression|MULTIPLY))? RBRACK
@@ -250,13 +263,20 @@ functionParameter
   ;
   
 procedure
-  : Procedure ID LPAREN (procedureParameter (',' procedureParameter)*)? RPAREN Returns methodReturnType ASSIGN expression DELIM
-     -> ^(PROCEDURE_DECL methodReturnType ID procedureParameter* ^(Return expression))
-  | Procedure ID LPAREN (procedureParameter (',' procedureParameter)*)? RPAREN (Returns methodReturnType)? block
-     -> ^(PROCEDURE_DECL methodReturnType? ID procedureParameter* block)
+  : Procedure ID LPAREN (procedureParameter (',' procedureParameter)*)? RPAREN
+    ( Returns methodReturnType
+      ( ASSIGN expression DELIM
+          -> ^(PROCEDURE_DECL methodReturnType ID procedureParameter* ^(Return expression))
+      | block
+          -> ^(PROCEDURE_DECL methodReturnType ID procedureParameter* block)
+      )
+    | block
+        -> ^(PROCEDURE_DECL ID procedureParameter* block)
+    )
   ;
 	
 procedureParameter
+options { backtrack = true; }
   // vectors
   : primitiveType Vector? ID LBRACK expression RBRACK 
       -> ^(ARG_DECL Const["const"] ^(VECTOR primitiveType expression) ID)
@@ -322,6 +342,7 @@ procedureParameter
   ;
 
 methodReturnType
+options { backtrack = true; }
   : primitiveType Vector? LBRACK expression RBRACK -> ^(VECTOR primitiveType expression)
   | primitiveType Vector? LBRACK MULTIPLY RBRACK -> ^(VECTOR primitiveType INFERRED)
   | String LBRACK expression RBRACK -> ^(VECTOR CHARACTER_TYPE["character"] expression)
@@ -341,11 +362,14 @@ methodReturnType
 
 // START: block
 block
-  : LBRACE {varDeclConstraint.push(true);} varDeclaration* nonDeclarableStatement* RBRACE {varDeclConstraint.pop();} -> ^(BLOCK varDeclaration* nonDeclarableStatement*)
-  | LBRACE {varDeclConstraint.push(true);} varDeclaration* nonDeclarableStatement* varDeclaration
-    {
-      emitErrorMessage("In the block starting on line " + $LBRACE.getLine() + ": Declarations can only appear at the start of this block."); 
-    }
+  : LBRACE {varDeclConstraint.push(true);} ((varDeclaration)=> d+=varDeclaration)* (s+=nonDeclarableStatement)*
+    ( RBRACE {varDeclConstraint.pop();} -> ^(BLOCK $d* $s*)
+    | misplaced=varDeclaration
+      {
+        emitErrorMessage("In the block starting on line " + $LBRACE.getLine() + ": Declarations can only appear at the start of this block."); 
+      }
+        -> LBRACE $d* $s* $misplaced
+    )
   ;
 // END: block
 
@@ -356,6 +380,7 @@ specifier
 	;
 
 varDeclaration
+options { backtrack = true; }
 	: type ID (ASSIGN expression)? DELIM 
 	  { if(varDeclConstraint.empty()) emitErrorMessage("line " + $ID.getLine() + ": Global variables must be declared with the const specifier."); } 
 	    -> ^(VAR_DECL Var["var"] type ID expression?)
@@ -380,6 +405,7 @@ inputDeclaration
   ;
   
 streamDeclaration throws ParserError
+options { backtrack = true; }
   : specifier ID ASSIGN STDOUT DELIM -> ^(DECL_OUTSTREAM specifier ID STDOUT)
   | specifier ID ASSIGN STDIN DELIM -> ^(DECL_INSTREAM specifier ID STDIN)
   | specifier? type ID ASSIGN STDIN DELIM
@@ -389,6 +415,7 @@ streamDeclaration throws ParserError
   ;
   
 intervalDeclaration
+options { backtrack = true; }
   : INTEGER_TYPE Interval ID (ASSIGN expression)? DELIM
     { if(varDeclConstraint.empty()) emitErrorMessage("line " + $ID.getLine() + ": Global variables must be declared with the const specifier."); }
       -> ^(VAR_DECL Var["var"] Interval ID expression?)
@@ -458,6 +485,7 @@ stringDeclaration
 // END: var
 
 typedef
+options { backtrack = true; }
 @init { int line = -1; }
 @after { if(!varDeclConstraint.empty()) emitErrorMessage("line " + line + ": Typedef must only be declared in global scope.");}
   : Typedef type ID DELIM {line = $ID.getLine();} 
@@ -494,38 +522,52 @@ nonDeclarableStatement
   | loopStatement
   |	CALL postfixExpression DELIM ->  ^(EXPR postfixExpression)
   | Return expression? DELIM -> ^(Return expression?)
-  |	lhs ASSIGN expression DELIM -> ^(ASSIGN lhs expression)
-  | expression OUTSTREAM ID DELIM -> ^(PRINT ID expression)
-  | lhs INSTREAM ID DELIM -> ^(INPUT ID lhs)
-  | a=postfixExpression DELIM // handles function calls like f(i);
+  |	(lhs ASSIGN)=> lhs ASSIGN expression DELIM -> ^(ASSIGN lhs expression)
+  | (expression OUTSTREAM)=> expression OUTSTREAM ID DELIM -> ^(PRINT ID expression)
+  | (lhs INSTREAM)=> lhs INSTREAM ID DELIM -> ^(INPUT ID lhs)
+  | (postfixExpression DELIM)=> a=postfixExpression DELIM // handles function calls like f(i);
   		-> ^(EXPR postfixExpression)
   | ID (',' ID)+ ASSIGN expression DELIM -> ^(UNPACK ^(EXPR ID)+ expression)
   | flowControlStatement
   ;
 
 conditionalStatement
-  : If LPAREN expression RPAREN s=statement (Else e=statement)? -> ^(If expression $s $e?)
-  | If LPAREN expression statement (Else statement)? { emitErrorMessage("line " + $If.getLine() + ": Missing right parenthesis."); }
-  | If expression RPAREN statement (Else statement)? { emitErrorMessage("line " + $If.getLine() + ": Missing left parenthesis."); }
-  | If expression s=statement (Else e=statement)? -> ^(If expression $s $e?)
+  : (If LPAREN expression ~(RPAREN | ','))=>
+    If LPAREN expression statement (options {greedy = true;} : Else statement)? { emitErrorMessage("line " + $If.getLine() + ": Missing right parenthesis."); }
+  | (If expression RPAREN)=>
+    If expression RPAREN statement (options {greedy = true;} : Else statement)? { emitErrorMessage("line " + $If.getLine() + ": Missing left parenthesis."); }
+  | If expression s=statement (options {greedy = true;} : Else e=statement)? -> ^(If expression $s $e?)
   | // Catch danging else statements missing corresponding if.
     Else {  emitErrorMessage("line " + $Else.getLine() + ": else statement missing matching if."); }
   ;
 
 loopStatement
-  : Loop {loopDepth++;} While LPAREN expression RPAREN statement {loopDepth--;} -> ^(WHILE expression statement)
-  | Loop While LPAREN expression statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
-  | Loop While expression RPAREN statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
-  | Loop {loopDepth++;} While expression statement {loopDepth--;} -> ^(WHILE expression statement)
-  | Loop {loopDepth++;} statement While LPAREN expression RPAREN {loopDepth--;} -> ^(DOWHILE expression statement)
-  | Loop statement While LPAREN expression { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
-  | Loop statement While expression RPAREN { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
-  | Loop {loopDepth++;} statement While expression {loopDepth--;} -> ^(DOWHILE expression statement)
-  | Loop {loopDepth++;} statement {loopDepth--;} -> ^(Loop statement) // infinite loop
-  |	Loop {loopDepth++;} LPAREN domainExpression (',' domainExpression)* RPAREN statement {loopDepth--;} -> ^(ITERATOR domainExpression+ statement)
-  | Loop LPAREN domainExpression (',' domainExpression)* statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
-  | Loop domainExpression (',' domainExpression)* RPAREN statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
-  | Loop {loopDepth++;} domainExpression (',' domainExpression)* statement {loopDepth--;} -> ^(ITERATOR domainExpression+ statement)
+  : (Loop While LPAREN expression ~(RPAREN | ','))=>
+    Loop While LPAREN expression statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
+  | (Loop While expression RPAREN)=>
+    Loop While expression RPAREN statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
+  | (Loop While)=>
+    Loop While expression {loopDepth++;} statement {loopDepth--;} -> ^(WHILE expression statement)
+  | (Loop LPAREN domainExpression (',' domainExpression)* ~RPAREN)=>
+    Loop LPAREN domainExpression (',' domainExpression)* statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
+  | (Loop LPAREN ID In)=>
+    Loop LPAREN domainExpression (',' domainExpression)* RPAREN {loopDepth++;} statement {loopDepth--;} -> ^(ITERATOR domainExpression+ statement)
+  | (Loop domainExpression (',' domainExpression)* RPAREN)=>
+    Loop domainExpression (',' domainExpression)* RPAREN statement { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
+  | (Loop ID In)=>
+    Loop domainExpression (',' domainExpression)* {loopDepth++;} statement {loopDepth--;} -> ^(ITERATOR domainExpression+ statement)
+  | Loop {loopDepth++;} statement {loopDepth--;}
+    ( options {greedy = true;} :
+      While
+      ( (LPAREN expression RPAREN)=> LPAREN expression RPAREN -> ^(DOWHILE expression statement)
+      | (LPAREN expression)=> LPAREN expression { emitErrorMessage("line " + $Loop.getLine() + ": Missing right parenthesis."); }
+          -> Loop statement While LPAREN expression
+      | (expression RPAREN)=> expression RPAREN { emitErrorMessage("line " + $Loop.getLine() + ": Missing left parenthesis."); } 
+          -> Loop statement While expression RPAREN
+      | expression -> ^(DOWHILE expression statement)
+      )
+    | -> ^(Loop statement) // infinite loop
+    )
   ;
 
 lhs 
@@ -590,7 +632,7 @@ byExpression
   ;
 
 additiveExpression
-	:	multiplicativeExpression ((ADD^ | SUBTRACT^) multiplicativeExpression)*
+	:	multiplicativeExpression (options {greedy = true;} : (ADD^ | SUBTRACT^) multiplicativeExpression)*
 	;
 	
 multiplicativeExpression
@@ -617,10 +659,13 @@ rangeExpression
 postfixExpression
     : primary
     (
-    	(	DOT^ (INTEGER | ID | {emitErrorMessage("line " + $DOT.getLine() + ": Only integers and identifiers are allowed to index tuples.");})
+    	(	options {greedy = true;} :
+    		DOT^ (options {greedy = true;} : INTEGER | ID | {emitErrorMessage("line " + $DOT.getLine() + ": Only integers and identifiers are allowed to index tuples.");})
     	|	r=LPAREN^ expressionList RPAREN!	{ $r.setType(CALL); $r.setText("CALL"); }
-    	|	r=LBRACK^ expression ','! expression RBRACK!	{ $r.setType(MATRIX_INDEX); $r.setText("MATRIX_INDEX");}
-    	|	r=LBRACK^ expression RBRACK!				{ $r.setType(VECTOR_INDEX); $r.setText("VECTOR_INDEX");}
+    	|	r=LBRACK^ expression
+    		(	','! expression RBRACK!	{ $r.setType(MATRIX_INDEX); $r.setText("MATRIX_INDEX");}
+    		|	RBRACK!				{ $r.setType(VECTOR_INDEX); $r.setText("VECTOR_INDEX");}
+    		)
     	)*
     )
     ;
@@ -637,8 +682,10 @@ primary
     |	False
     | Identity
     | Null
-    | LPAREN expr RPAREN -> expr
-    | LPAREN expression (',' expression)+ RPAREN -> ^(TUPLE_LIST expression+)
+    | LPAREN expr
+      ( RPAREN -> expr
+      | (',' expression)+ RPAREN -> ^(TUPLE_LIST ^(EXPR expr) expression+)
+      )
     | generator
     | LBRACK expression (',' expression)* RBRACK -> ^(VECTOR_LIST expression+)
     | filter
@@ -649,9 +696,12 @@ primary
     ;
 
 filter
-  : Filter LPAREN domainExpression PIPE RPAREN 
-      {emitErrorMessage("line " + $LPAREN.getLine() + ": Filters must have at least one predicate.");}
-  | Filter LPAREN domainExpression PIPE expressionList RPAREN -> ^(FILTER domainExpression expressionList)
+  : Filter LPAREN domainExpression PIPE
+    ( (RPAREN)=> RPAREN
+        {emitErrorMessage("line " + $LPAREN.getLine() + ": Filters must have at least one predicate.");}
+        -> Filter LPAREN domainExpression PIPE RPAREN
+    | expressionList RPAREN -> ^(FILTER domainExpression expressionList)
+    )
   ;
 
 generator
@@ -669,17 +719,28 @@ typecast
   // Vector
   | As LESS primitiveType Vector GREATER LPAREN to=expression RPAREN 
       -> ^(TYPECAST ^(VECTOR primitiveType INFERRED) $to)
-  | As LESS primitiveType Vector? LBRACK (size1=expression | size2=MULTIPLY) RBRACK GREATER  LPAREN to=expression RPAREN 
+  | As LESS primitiveType Vector LBRACK (size1=expression | size2=MULTIPLY) RBRACK GREATER  LPAREN to=expression RPAREN 
       {if($size2 != null) { $size2.setType(INFERRED); $size2.setText("INFERRED"); }}
       -> ^(TYPECAST ^(VECTOR primitiveType $size1? $size2?) $to)
       
   // Matrix
   | As LESS primitiveType Matrix GREATER LPAREN to=expression RPAREN 
       -> ^(TYPECAST ^(MATRIX primitiveType INFERRED INFERRED) $to)
-  | As LESS primitiveType Matrix? LBRACK (size1=expression | size2=MULTIPLY ) ',' (size3=expression |size4=MULTIPLY) RBRACK GREATER LPAREN to=expression RPAREN 
+  | As LESS primitiveType Matrix LBRACK (size1=expression | size2=MULTIPLY ) ',' (size3=expression |size4=MULTIPLY) RBRACK GREATER LPAREN to=expression RPAREN 
       {if($size2 != null) { $size2.setType(INFERRED); $size2.setText("INFERRED"); }}
       {if($size4 != null) { $size4.setType(INFERRED); $size4.setText("INFERRED"); }}
       -> ^(TYPECAST ^(MATRIX primitiveType $size1? $size2? $size3? $size4?) $to)
+      
+  // Vector or matrix, told apart by the number of sizes
+  | As LESS primitiveType LBRACK (size1=expression | size2=MULTIPLY)
+    ( RBRACK GREATER LPAREN to=expression RPAREN
+        {if($size2 != null) { $size2.setType(INFERRED); $size2.setText("INFERRED"); }}
+        -> ^(TYPECAST ^(VECTOR primitiveType $size1? $size2?) $to)
+    | ',' (size3=expression |size4=MULTIPLY) RBRACK GREATER LPAREN to=expression RPAREN 
+        {if($size2 != null) { $size2.setType(INFERRED); $size2.setText("INFERRED"); }}
+        {if($size4 != null) { $size4.setType(INFERRED); $size4.setText("INFERRED"); }}
+        -> ^(TYPECAST ^(MATRIX primitiveType $size1? $size2? $size3? $size4?) $to)
+    )
   
   // primitive
   | As LESS type GREATER LPAREN expression RPAREN 
@@ -1,17 +1,41 @@
-
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import ab.dash.CompileOutput;
+import ab.dash.LLVMTemplates;
+import ab.dash.PassTimer;
 import ab.dash.Runner;
 
 public class DashAB_Part2_Test {
 
-	
+
+    // -Xtime-passes prints a table of the time spent in every compiler pass
+    // to stderr, -Xtime-passes=json prints the same report as JSON
     public static void main(String[] args) throws IOException, InterruptedException {
-    	CompileOutput output = Runner.llvmCompile(args);
+    	String timePasses = null;
+    	List<String> rest = new ArrayList<String>();
+
+    	for (String arg : args) {
+    		if (arg.equals("-Xtime-passes") || arg.equals("-Xtime-passes=table")) {
+    			timePasses = "table";
+    		} else if (arg.equals("-Xtime-passes=json")) {
+    			timePasses = "json";
+    		} else {
+    			rest.add(arg);
+    		}
+    	}
+
+    	PassTimer timer = timePasses == null ? PassTimer.disabled() : new PassTimer();
+    	CompileOutput output = Runner.llvmCompile(rest.toArray(new String[rest.size()]), LLVMTemplates.get(), timer);
     	if (output != null)
     		System.out.println(output.llvm);
     	else
     		System.err.println("Build Failed");
+
+    	if ("json".equals(timePasses))
+    		System.err.println(timer.toJSON());
+    	else if (timePasses != null)
+    		System.err.print(timer.toTable());
     }
 }
@@ -0,0 +1,147 @@
+/** Compiles every Dash program found under a directory in one JVM, spread
+ *  across a bounded pool of worker threads. Each program is compiled in its
+ *  own CompilationContext, so the generated LLVM IR does not depend on the
+ *  number of threads or on the order the programs are picked up in. **/
+package ab.dash;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.antlr.stringtemplate.StringTemplateGroup;
+
+public class BatchCompiler {
+    private StringTemplateGroup stg;
+    private int threads;
+
+    public BatchCompiler(int threads) {
+        this.stg = LLVMTemplates.get();
+        this.threads = threads;
+    }
+
+    // finds every .ds file below dir, sorted by path
+    public static List<File> findPrograms(File dir) {
+        List<File> programs = new ArrayList<File>();
+        File[] files = dir.listFiles();
+
+        if (files == null) {
+            return programs;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                programs.addAll(findPrograms(file));
+            } else if (file.getName().endsWith(".ds")) {
+                programs.add(file);
+            }
+        }
+
+        return programs;
+    }
+
+    // compiles all programs and returns their LLVM IR in the order given,
+    // null for programs that failed to compile
+    public Map<File, String> compile(List<File> programs) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<File, Future<CompileOutput>> pending = new LinkedHashMap<File, Future<CompileOutput>>();
+
+        try {
+            for (final File program : programs) {
+                pending.put(program, pool.submit(new Callable<CompileOutput>() {
+                    public CompileOutput call() throws Exception {
+                        return Runner.llvmCompile(new String[] {program.getPath()}, stg);
+                    }
+                }));
+            }
+
+            Map<File, String> results = new LinkedHashMap<File, String>();
+            for (Map.Entry<File, Future<CompileOutput>> entry : pending.entrySet()) {
+                CompileOutput output = null;
+                try {
+                    output = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    System.err.println(entry.getKey().getPath() + ": " + e.getCause());
+                }
+
+                results.put(entry.getKey(), output == null ? null : output.llvm);
+            }
+
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // path of program relative to inputDir, so equal file names in
+    // different directories stay apart
+    private static String relativePath(File inputDir, File program) {
+        String relative = inputDir.getAbsoluteFile().toURI().relativize(program.getAbsoluteFile().toURI()).getPath();
+        if (new File(relative).isAbsolute()) {
+            throw new IllegalArgumentException(program.getPath() + " is not below " + inputDir.getPath());
+        }
+        return relative;
+    }
+
+    // writes <outputDir>/<path below inputDir>.ll for every program that
+    // compiled, returns the number of failures
+    public int compileTo(List<File> programs, File inputDir, File outputDir) throws InterruptedException {
+        int failures = 0;
+
+        for (Map.Entry<File, String> result : compile(programs).entrySet()) {
+            if (result.getValue() == null) {
+                System.err.println("Build Failed: " + result.getKey().getPath());
+                failures++;
+            } else {
+                File output = new File(outputDir, relativePath(inputDir, result.getKey()) + ".ll");
+                Runner.createFile(output.getPath(), result.getValue());
+            }
+        }
+
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> paths = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                paths.add(args[i]);
+            }
+        }
+
+        if (paths.isEmpty() || paths.size() > 2) {
+            System.err.println("usage: BatchCompiler [-j <threads>] <program dir> [<output dir>]");
+            System.exit(1);
+        }
+
+        File inputDir = new File(paths.get(0));
+        File outputDir = new File(paths.size() > 1 ? paths.get(1) : "LLVMIROutput");
+        List<File> programs = findPrograms(inputDir);
+
+        BatchCompiler compiler = new BatchCompiler(threads);
+        int failures = compiler.compileTo(programs, inputDir, outputDir);
+
+        System.out.println("Compiled " + (programs.size() - failures) + " of " + programs.size()
+                + " programs with " + threads + " threads");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
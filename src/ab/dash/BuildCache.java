@@ -0,0 +1,282 @@
+/** Content addressed cache of compiled Dash programs.
+ *
+ *  Every entry is a directory named after a SHA-256 key computed from the
+ *  program source, the compiler classes, the LLVM string templates, the Dash
+ *  runtime library and the opt level. It holds the generated .ll and .ast
+ *  and the object file and executable built from them, so an unchanged
+ *  program does not have to go through the compiler passes, llc or clang
+ *  again. Entries are written to a temporary directory first and renamed
+ *  into place, so concurrent builds never see a half written entry.
+ *
+ *  The cache lives in .dashcache unless the dash.cache.dir system property
+ *  says otherwise, and is turned off with -Ddash.cache=off. It keeps at
+ *  most MAX_ENTRIES entries, or -Ddash.cache.entries, and drops the least
+ *  recently used ones past that. **/
+package ab.dash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class BuildCache {
+	public static final String LLVM = "program.ll";
+	public static final String AST = "program.ast";
+	public static final String OBJECT = "program.o";
+	public static final String EXECUTABLE = "program";
+
+	/** Entries kept unless dash.cache.entries says otherwise */
+	public static final int MAX_ENTRIES = 1000;
+
+	// the compiler and templates do not change while a JVM runs
+	private static class Fingerprints {
+		static final String compiler = fingerprintCompiler();
+		static final String templates = fingerprintTemplates();
+	}
+
+	private File dir;
+	private int maxEntries;
+	private int hits;
+	private int misses;
+
+	public BuildCache(File dir) {
+		this(dir, MAX_ENTRIES);
+	}
+
+	public BuildCache(File dir, int maxEntries) {
+		this.dir = dir;
+		this.maxEntries = maxEntries;
+	}
+
+	/** The cache configured by system properties, null if it is turned off */
+	public static BuildCache fromEnvironment() {
+		if ("off".equals(System.getProperty("dash.cache"))) {
+			return null;
+		}
+		return new BuildCache(new File(System.getProperty("dash.cache.dir", ".dashcache")),
+				Integer.getInteger("dash.cache.entries", MAX_ENTRIES));
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static void update(MessageDigest digest, File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void listClasses(File dir, List<File> classes) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.isDirectory()) {
+				listClasses(file, classes);
+			} else if (file.getName().endsWith(".class")) {
+				classes.add(file);
+			}
+		}
+	}
+
+	// hashes the class files of the compiler, or the jar they were loaded from
+	private static String fingerprintCompiler() {
+		MessageDigest digest = sha256();
+
+		try {
+			File location = new File(Runner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			List<File> classes = new ArrayList<File>();
+
+			if (location.isDirectory()) {
+				listClasses(new File(location, "ab/dash"), classes);
+				Collections.sort(classes);
+			} else {
+				classes.add(location);
+			}
+
+			for (File file : classes) {
+				digest.update(file.getPath().getBytes("UTF-8"));
+				update(digest, file);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to fingerprint the compiler classes", e);
+		}
+
+		return hex(digest.digest());
+	}
+
+	private static String fingerprintTemplates() {
+		MessageDigest digest = sha256();
+
+		try {
+			for (String f : LLVMTemplates.STG_FILES) {
+				update(digest, new File(f));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to fingerprint the LLVM string templates", e);
+		}
+
+		return hex(digest.digest());
+	}
+
+	/** Key of a program built with the given toolchain */
+	public String key(File source, Toolchain toolchain) throws IOException {
+		MessageDigest digest = sha256();
+
+		update(digest, source);
+		digest.update(Fingerprints.compiler.getBytes("UTF-8"));
+		digest.update(Fingerprints.templates.getBytes("UTF-8"));
+		digest.update(("opt " + toolchain.getOptLevel()).getBytes("UTF-8"));
+
+		File runtime = new File(toolchain.getRuntimeDir(), "libruntime.a");
+		if (runtime.exists()) {
+			update(digest, runtime);
+		}
+
+		return hex(digest.digest());
+	}
+
+	/** Entry directory of a complete entry, or null on a miss */
+	public File lookup(String key) {
+		File entry = new File(dir, key);
+
+		if (new File(entry, EXECUTABLE).canExecute()) {
+			hits++;
+			entry.setLastModified(System.currentTimeMillis());
+			return entry;
+		}
+
+		misses++;
+		return null;
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		try {
+			OutputStream out = new FileOutputStream(to);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	/** Copies the .ll and .ast of an entry to llvm and ast, as a build
+	 *  would have written them */
+	public void restore(File entry, File llvm, File ast) throws IOException {
+		llvm.getAbsoluteFile().getParentFile().mkdirs();
+		copy(new File(entry, LLVM), llvm);
+		copy(new File(entry, AST), ast);
+	}
+
+	// drops the least recently used entries past maxEntries
+	private void evict() {
+		File[] entries = dir.listFiles();
+		if (entries == null || entries.length <= maxEntries) {
+			return;
+		}
+
+		List<File> complete = new ArrayList<File>();
+		for (File entry : entries) {
+			if (entry.isDirectory() && !entry.getName().contains(".tmp-")) {
+				complete.add(entry);
+			}
+		}
+
+		Collections.sort(complete, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+			}
+		});
+
+		for (int i = 0; i < complete.size() - maxEntries; i++) {
+			delete(complete.get(i));
+		}
+	}
+
+	/** Stores a successful build, returns the entry directory */
+	public File store(String key, File llvm, File ast, File object, File executable) throws IOException {
+		File entry = new File(dir, key);
+		File tmp = new File(dir, key + ".tmp-" + Thread.currentThread().getId() + "-" + System.nanoTime());
+
+		if (!tmp.mkdirs()) {
+			throw new IOException("Unable to create cache directory [" + tmp + "]");
+		}
+
+		try {
+			copy(llvm, new File(tmp, LLVM));
+			copy(ast, new File(tmp, AST));
+			copy(object, new File(tmp, OBJECT));
+			copy(executable, new File(tmp, EXECUTABLE));
+			new File(tmp, EXECUTABLE).setExecutable(true);
+
+			// another build of the same program may have got there first,
+			// its entry is just as good
+			if (!tmp.renameTo(entry) && !entry.isDirectory()) {
+				throw new IOException("Unable to create cache entry [" + entry + "]");
+			}
+		} finally {
+			if (tmp.exists()) {
+				delete(tmp);
+			}
+		}
+
+		evict();
+		return entry;
+	}
+}
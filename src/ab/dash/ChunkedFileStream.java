@@ -0,0 +1,292 @@
+/** Character stream over a source file that is read in chunks, instead of
+ *  loading the whole file up front the way ANTLRFileStream does.
+ *
+ *  Only the characters the lexer can still ask for are kept: those after
+ *  the oldest active mark and after the last substring(), which the token
+ *  stream requests for every token in order. Older characters are dropped
+ *  when the next chunk is read. Asking for them again re-reads them from the
+ *  file, which only error messages do. **/
+package ab.dash;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.runtime.CharStream;
+
+public class ChunkedFileStream implements CharStream {
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private String fileName;
+	private String encoding;
+	private Reader reader;
+	private boolean eof;
+
+	// data[0] holds the character at index offset, n characters are loaded
+	private char[] data = new char[CHUNK_SIZE];
+	private int offset;
+	private int n;
+
+	private int p;
+	private int line = 1;
+	private int charPositionInLine;
+
+	// characters before this one were already handed out by substring()
+	private int textEnd;
+
+	private static class Marker {
+		int p;
+		int line;
+		int charPositionInLine;
+	}
+
+	// markers.get(0) is unused, as in ANTLRStringStream
+	private List<Marker> markers = new ArrayList<Marker>();
+	private int markDepth;
+	private int lastMarker;
+
+	public ChunkedFileStream(String fileName) throws IOException {
+		this(fileName, null);
+	}
+
+	public ChunkedFileStream(String fileName, String encoding) throws IOException {
+		this.fileName = fileName;
+		this.encoding = encoding;
+		this.reader = open();
+		markers.add(null);
+	}
+
+	private Reader open() throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		return new BufferedReader(encoding == null
+				? new InputStreamReader(in) : new InputStreamReader(in, encoding));
+	}
+
+	// drops the characters nobody can ask for any more
+	private void compact() {
+		int keep = Math.min(p, textEnd);
+		for (int i = 1; i <= markDepth; i++) {
+			keep = Math.min(keep, markers.get(i).p);
+		}
+
+		int drop = keep - offset;
+		if (drop > 0) {
+			System.arraycopy(data, drop, data, 0, n - drop);
+			n -= drop;
+			offset += drop;
+		}
+	}
+
+	// loads the character at index, false if the file ends before it
+	private boolean fill(int index) {
+		while (index >= offset + n) {
+			if (eof) {
+				return false;
+			}
+
+			if (n == data.length) {
+				compact();
+				if (n == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+			}
+
+			try {
+				int read = reader.read(data, n, data.length - n);
+				if (read < 0) {
+					eof = true;
+					reader.close();
+				} else {
+					n += read;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read [" + fileName + "]", e);
+			}
+		}
+
+		return true;
+	}
+
+	// skips count characters of in, false if it ends before
+	private static boolean skip(Reader in, int count) throws IOException {
+		long skipped = 0;
+		while (skipped < count) {
+			long s = in.skip(count - skipped);
+			if (s <= 0) {
+				return false;
+			}
+			skipped += s;
+		}
+		return true;
+	}
+
+	// characters that were dropped are read from the file again
+	private String reread(int start, int stop) {
+		try {
+			Reader in = open();
+			try {
+				if (!skip(in, start)) {
+					return "";
+				}
+
+				char[] text = new char[stop - start + 1];
+				int length = 0;
+				while (length < text.length) {
+					int read = in.read(text, length, text.length - length);
+					if (read < 0) {
+						break;
+					}
+					length += read;
+				}
+				return new String(text, 0, length);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read [" + fileName + "]", e);
+		}
+	}
+
+	public void consume() {
+		if (p < offset + n || fill(p)) {
+			charPositionInLine++;
+			if (data[p - offset] == '\n') {
+				line++;
+				charPositionInLine = 0;
+			}
+			p++;
+		}
+	}
+
+	public int LA(int i) {
+		if (i == 0) {
+			return 0; // undefined
+		}
+		if (i < 0) {
+			i++; // LA(-1) is the character before p
+			if (p + i - 1 < 0) {
+				return CharStream.EOF;
+			}
+		}
+
+		int index = p + i - 1;
+		if (index < offset) {
+			String c = reread(index, index);
+			return c.isEmpty() ? CharStream.EOF : c.charAt(0);
+		}
+		if (index >= offset + n && !fill(index)) {
+			return CharStream.EOF;
+		}
+		return data[index - offset];
+	}
+
+	public int LT(int i) {
+		return LA(i);
+	}
+
+	public int index() {
+		return p;
+	}
+
+	/** Number of characters read so far, the whole file once the lexer
+	 *  reached its end */
+	public int size() {
+		return offset + n;
+	}
+
+	public int mark() {
+		markDepth++;
+		Marker state;
+		if (markDepth >= markers.size()) {
+			state = new Marker();
+			markers.add(state);
+		} else {
+			state = markers.get(markDepth);
+		}
+		state.p = p;
+		state.line = line;
+		state.charPositionInLine = charPositionInLine;
+		lastMarker = markDepth;
+		return markDepth;
+	}
+
+	public void rewind(int m) {
+		Marker state = markers.get(m);
+		seek(state.p);
+		line = state.line;
+		charPositionInLine = state.charPositionInLine;
+		release(m);
+	}
+
+	public void rewind() {
+		rewind(lastMarker);
+	}
+
+	public void release(int marker) {
+		markDepth = marker - 1;
+	}
+
+	// reads the file again from index on, when going back to characters
+	// that were dropped
+	private void reload(int index) {
+		try {
+			reader.close();
+			reader = open();
+			eof = !skip(reader, index);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read [" + fileName + "]", e);
+		}
+		offset = index;
+		n = 0;
+	}
+
+	public void seek(int index) {
+		if (index < offset) {
+			reload(index);
+		}
+		if (index <= p) {
+			p = index;
+			return;
+		}
+		while (p < index && LA(1) != CharStream.EOF) {
+			consume();
+		}
+	}
+
+	public String substring(int start, int stop) {
+		if (start < offset) {
+			return reread(start, stop);
+		}
+
+		fill(stop);
+		stop = Math.min(stop, offset + n - 1);
+		textEnd = Math.max(textEnd, stop + 1);
+		return new String(data, start - offset, stop - start + 1);
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public void setLine(int line) {
+		this.line = line;
+	}
+
+	public int getCharPositionInLine() {
+		return charPositionInLine;
+	}
+
+	public void setCharPositionInLine(int pos) {
+		this.charPositionInLine = pos;
+	}
+
+	public String getSourceName() {
+		return fileName;
+	}
+}
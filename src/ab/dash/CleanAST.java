@@ -11,7 +11,9 @@ public class CleanAST {
 		exec(tree);
 	}
 	
-	protected void exec(DashAST t) {
+	// deletes the children of a single node that are no longer needed,
+	// clean() does the whole tree
+	public void visit(DashAST t) {
 		for (int i = t.getChildCount() - 1; i >= 0; i--) {
 			DashAST child = (DashAST) t.getChild(i);
 			boolean delete = false;
@@ -32,11 +34,17 @@ public class CleanAST {
 				}
 			}
 			
-			if (!delete)
-				exec(child);
-			else {
+			if (delete) {
 				t.deleteChild(i);
 			}
 		}
 	}
+	
+	protected void exec(DashAST t) {
+		visit(t);
+		
+		for (int i = 0; i < t.getChildCount(); i++) {
+			exec((DashAST) t.getChild(i));
+		}
+	}
 }
@@ -0,0 +1,144 @@
+/** Long lived compiler service. Keeps the lexer/parser classes, the parsed
+ *  string template group and the warmed up JIT resident so that many Dash
+ *  programs can be compiled by one process.
+ *
+ *  Requests are read one per line, from stdin or from a socket when started
+ *  with -port:
+ *
+ *      <program.ds> [<output.ll>]
+ *
+ *  Every request is answered with a single line, either "ok <output.ll>" or
+ *  "error <program.ds>: <reason>". An empty line or "quit" ends the session. **/
+package ab.dash;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.antlr.stringtemplate.StringTemplateGroup;
+
+public class CompileServer {
+    private static final int WARMUP_ROUNDS = 20;
+
+    private StringTemplateGroup stg;
+    private int compiled;
+
+    public CompileServer() {
+        this.stg = LLVMTemplates.get();
+        this.compiled = 0;
+    }
+
+    public int getCompiledCount() {
+        return compiled;
+    }
+
+    // compiles a program a number of times so the JIT has seen the hot paths
+    // of every pass before the first real request arrives
+    public void warmup(String program, int rounds) throws IOException, InterruptedException {
+        for (int i = 0; i < rounds; i++) {
+            Runner.llvmCompile(new String[] {program}, stg);
+        }
+    }
+
+    // compiles a single request line and returns the response line
+    public String handle(String request) {
+        String[] parts = request.trim().split("\\s+");
+        String program = parts[0];
+        String output;
+
+        if (parts.length > 1) {
+            output = parts[1];
+        } else {
+            output = "LLVMIROutput/" + program.substring(program.lastIndexOf('/') + 1) + ".ll";
+        }
+
+        CompileOutput llvm_output;
+        try {
+            llvm_output = Runner.llvmCompile(new String[] {program}, stg);
+        } catch (RuntimeException e) {
+            return "error " + program + ": " + e.getMessage();
+        } catch (IOException e) {
+            return "error " + program + ": " + e.getMessage();
+        } catch (InterruptedException e) {
+            return "error " + program + ": interrupted";
+        }
+
+        if (llvm_output == null) {
+            return "error " + program + ": compilation failed";
+        }
+
+        Runner.createFile(output, llvm_output.llvm);
+        compiled++;
+
+        return "ok " + output;
+    }
+
+    // serves requests until the end of the stream, an empty line or "quit"
+    public void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line = null;
+
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.equals("quit")) {
+                break;
+            }
+
+            out.println(handle(line));
+            out.flush();
+        }
+    }
+
+    // serves one client connection at a time on the given port
+    public void listen(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+
+        try {
+            while (true) {
+                Socket client = server.accept();
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream()));
+                    serve(in, out);
+                } finally {
+                    client.close();
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = -1;
+        String warmup = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-warmup") && i + 1 < args.length) {
+                warmup = args[++i];
+            } else {
+                System.err.println("usage: CompileServer [-port <port>] [-warmup <program.ds>]");
+                System.exit(1);
+            }
+        }
+
+        CompileServer server = new CompileServer();
+
+        if (warmup != null) {
+            server.warmup(warmup, WARMUP_ROUNDS);
+        }
+
+        if (port > 0) {
+            server.listen(port);
+        } else {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out));
+            server.serve(in, out);
+        }
+    }
+}
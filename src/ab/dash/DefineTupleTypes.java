@@ -57,7 +57,8 @@ boolean debug_mode = false;
     }
 
 
-	public void define(DashAST t) {
+	// defines the tuple type of a single node, define() does the whole tree
+	public void visit(DashAST t) {
 		TupleTypeSymbol tuple = null;
 		
 		if (t.symbol != null) {
@@ -106,7 +107,11 @@ boolean debug_mode = false;
 //		    		debug(field_types.get(i));
 //		    	}
 		    }
-		
+	}
+
+	public void define(DashAST t) {
+		visit(t);
+
 		for (int i = 0; i < t.getChildCount(); i++) {
 			define((DashAST) t.getChild(i));
 		}
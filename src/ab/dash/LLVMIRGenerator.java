@@ -286,6 +286,9 @@ public class LLVMIRGenerator {
 				template = stg.getInstanceOf("function_returning_tuple");
 				template.setAttribute("type_id", ((TupleTypeSymbol)type).tupleTypeIndex);
 			}
+			else if (sym instanceof MethodSymbol && ((MethodSymbol) sym).memoize) {
+				template = memoizedFunction(t, type);
+			}
 			else {
 				template = stg.getInstanceOf("function");
 				template.setAttribute("return_type", getType(type));
@@ -2171,6 +2174,60 @@ public class LLVMIRGenerator {
 
 	}
 	
+	private StringTemplate memoizedFunction(DashAST t, Type type) {
+		StringTemplate template = stg.getInstanceOf("function_memoized");
+		template.setAttribute("return_type", getType(type));
+
+		// The arguments, each widened to 64 bits, are the key of a call
+		int count = t.getChildCount() - 2;
+		List<StringTemplate> keys = new ArrayList<StringTemplate>();
+		for (int i = 1; i < t.getChildCount() - 1; i++) {
+			VariableSymbol arg_var = (VariableSymbol) ((DashAST) t.getChild(i).getChild(1)).symbol;
+			String arg_type = typeIndexToName.get(arg_var.type.getTypeIndex());
+
+			int load_id = DashAST.getUniqueId();
+			StringTemplate load = stg.getInstanceOf(arg_type + "_get_local");
+			load.setAttribute("id", load_id);
+			load.setAttribute("sym_id", arg_var.id);
+
+			int convert_id = DashAST.getUniqueId();
+			StringTemplate convert = stg.getInstanceOf(arg_type + "_to_memo");
+			convert.setAttribute("id", convert_id);
+			convert.setAttribute("expr_id", load_id);
+
+			StringTemplate key = stg.getInstanceOf("memo_key");
+			key.setAttribute("id", DashAST.getUniqueId());
+			key.setAttribute("load", load);
+			key.setAttribute("convert", convert);
+			key.setAttribute("convert_id", convert_id);
+			key.setAttribute("index", i - 1);
+			key.setAttribute("count", count);
+			keys.add(key);
+		}
+
+		String return_type = typeIndexToName.get(type.getTypeIndex());
+
+		int cached_id = DashAST.getUniqueId();
+		StringTemplate cached = stg.getInstanceOf(return_type + "_from_memo");
+		cached.setAttribute("id", cached_id);
+		cached.setAttribute("expr_id", t.llvmResultID);
+
+		int call_id = DashAST.getUniqueId();
+		int result_id = DashAST.getUniqueId();
+		StringTemplate result = stg.getInstanceOf(return_type + "_to_memo");
+		result.setAttribute("id", result_id);
+		result.setAttribute("expr_id", call_id);
+
+		template.setAttribute("keys", keys);
+		template.setAttribute("count", count);
+		template.setAttribute("cached", cached);
+		template.setAttribute("cached_id", cached_id);
+		template.setAttribute("call_id", call_id);
+		template.setAttribute("result", result);
+		template.setAttribute("result_id", result_id);
+		return template;
+	}
+
 	private StringTemplate assignTuple(int id, VariableSymbol lhsTupleSymbol, int rhsExprId, StringTemplate rhsExpr) {
 		VariableSymbol tuple = (VariableSymbol) lhsTupleSymbol;
 		TupleTypeSymbol tuple_type = (TupleTypeSymbol) lhsTupleSymbol.type;
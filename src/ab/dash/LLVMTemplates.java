@@ -0,0 +1,160 @@
+package ab.dash;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.antlr.stringtemplate.StringTemplate;
+import org.antlr.stringtemplate.StringTemplateErrorListener;
+import org.antlr.stringtemplate.StringTemplateGroup;
+
+/*
+ * The LLVM string templates used by LLVMIRGenerator.
+ *
+ * The .stg files are read, parsed and validated once per JVM, the first time
+ * get() is called, and the resulting group is shared by every compilation,
+ * including compilations running on different threads. The shared group is
+ * sealed: once parsed, no templates can be defined or replaced, so one
+ * compilation can never change what another one generates. Instances handed
+ * out by getInstanceOf() are private copies and can be filled in freely.
+ */
+public class LLVMTemplates {
+	public static final String[] STG_FILES = new String[] {
+			"StringTemplate/LLVM.stg",
+			"StringTemplate/LLVM_Bool.stg",
+			"StringTemplate/LLVM_Char.stg",
+			"StringTemplate/LLVM_Int.stg",
+			"StringTemplate/LLVM_Real.stg",
+			"StringTemplate/LLVM_Tuple.stg",
+			"StringTemplate/LLVM_Interval.stg",
+			"StringTemplate/LLVM_Vector.stg",
+			"StringTemplate/LLVM_Matrix.stg"
+	};
+
+	// Lazily initialized on first use; the JVM guarantees this runs once
+	// even when several threads ask for the group at the same time.
+	private static class Shared {
+		static final StringTemplateGroup group = load();
+	}
+
+	/** The shared, already validated template group */
+	public static StringTemplateGroup get() {
+		return Shared.group;
+	}
+
+	/** Read, parse and validate a fresh copy of the templates */
+	public static StringTemplateGroup load() {
+		StringBuilder sb = new StringBuilder();
+
+		for (String f : STG_FILES)
+			sb.append(slurpFile(f));
+
+		final StringBuffer errors = new StringBuffer();
+		StringTemplateErrorListener listener = new StringTemplateErrorListener() {
+			public void error(String msg, Throwable e) {
+				errors.append(msg + "\n");
+			}
+
+			public void warning(String msg) {
+				errors.append(msg + "\n");
+			}
+		};
+
+		SealedGroup group = new SealedGroup(new StringReader(sb.toString()), listener);
+
+		if (errors.length() == 0 && !group.isDefined("program")) {
+			errors.append("missing template program\n");
+		}
+
+		if (errors.length() > 0) {
+			throw new RuntimeException("Invalid LLVM string templates:\n" + errors.toString());
+		}
+
+		group.seal();
+		return group;
+	}
+
+	private static String slurpFile(String f) {
+		StringBuilder sb = new StringBuilder();
+
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(f));
+			String l;
+
+			while ((l = br.readLine()) != null)
+				sb.append(l + System.getProperty("line.separator"));
+
+			br.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read string template [" + f + "]", e);
+		}
+
+		return sb.toString();
+	}
+
+	/** A template group that refuses any change once it has been parsed */
+	private static class SealedGroup extends StringTemplateGroup {
+		private boolean sealed;
+
+		public SealedGroup(StringReader r, StringTemplateErrorListener listener) {
+			super(r, listener);
+		}
+
+		// rendering problems are reported on stderr again once loading is done
+		void seal() {
+			setErrorListener(DEFAULT_ERROR_LISTENER);
+			this.sealed = true;
+		}
+
+		private void checkNotSealed() {
+			if (sealed) {
+				throw new UnsupportedOperationException("The shared LLVM templates are read-only");
+			}
+		}
+
+		public synchronized StringTemplate defineTemplate(String name, String template) {
+			checkNotSealed();
+			return super.defineTemplate(name, template);
+		}
+
+		public synchronized StringTemplate defineTemplateAlias(String name, String target) {
+			checkNotSealed();
+			return super.defineTemplateAlias(name, target);
+		}
+
+		public StringTemplate defineRegionTemplate(String enclosingTemplateName, String regionName,
+				String template, int type) {
+			checkNotSealed();
+			return super.defineRegionTemplate(enclosingTemplateName, regionName, template, type);
+		}
+
+		public StringTemplate defineRegionTemplate(StringTemplate enclosingTemplate, String regionName,
+				String template, int type) {
+			checkNotSealed();
+			return super.defineRegionTemplate(enclosingTemplate, regionName, template, type);
+		}
+
+		public void setSuperGroup(StringTemplateGroup superGroup) {
+			checkNotSealed();
+			super.setSuperGroup(superGroup);
+		}
+
+		public void setRefreshInterval(int refreshInterval) {
+			checkNotSealed();
+			super.setRefreshInterval(refreshInterval);
+		}
+
+		// StringTemplateGroup takes a raw Class, which Class<?> would not override
+		@SuppressWarnings("rawtypes")
+		public void registerRenderer(Class attributeClassType, Object renderer) {
+			checkNotSealed();
+			super.registerRenderer(attributeClassType, renderer);
+		}
+
+		public void setErrorListener(StringTemplateErrorListener listener) {
+			checkNotSealed();
+			super.setErrorListener(listener);
+		}
+	}
+}
@@ -1,32 +1,32 @@
 package ab.dash;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.runtime.CommonToken;
 
 import ab.dash.DashLexer;
 import ab.dash.ast.*;
+import ab.dash.opt.ConstantPropagation;
 
 /*
- * Move constant string, tuple, array, and matrix literals to global variables,
- * so the (complex) literal values won't have to be constructed every time they
- * are evaluated.
+ * Move constant tuple, vector, matrix and interval literals to global
+ * variables, so the (complex) literal values won't have to be constructed
+ * every time they are evaluated.
  *
  * For example, transform the following code,
  *
- *     const z = 2;
- *
  *     procedure main() returns integer {
  *     ...
  *        a = b + [1, 2, 3];
- *        c = d + [4, z, 5];
+ *        c = d + 1..7;
  *     ...
  *     }
  *
  * into something like this,
  *
- *     const z = 2;
- *     const __constant_1762 = [1, 2, 3]
- *     const __constant_1763 = [1, z, 3]
+ *     const __constant_1762 = [1, 2, 3];
+ *     const __constant_1763 = 1..7;
  *
  *     procedure main() returns integer {
  *     ...
@@ -35,48 +35,77 @@ import ab.dash.ast.*;
  *     ...
  *     }
  *
- * This optimization is expected to provide significant performance gains when
- * literals are used inside loops.
+ * The globals are built once by initGlobals, before the globals of the
+ * program, which may call functions using them. Equal literals share a
+ * global. This optimization is expected to provide significant performance
+ * gains when literals are used inside loops.
  *
  * NOTES:
  *
- * Be sure to apply this to static ranges, such as the following:
+ * Only literals whose elements are all literals are moved, so run this pass
+ * after the constant folding and propagation optimizations.
  *
- *     a = b + 1..7
+ * A literal passed straight to a call or returned is left alone, as the
+ * procedure or caller getting it could change the global.
  *
- * Be sure to run this pass after the constant folding and propagation
- * optimizations.
+ * An interval operand of an operation on integer vectors would be turned
+ * into a vector every time the operation runs, so it is made a vector
+ * global instead.
  *
  */
 public class LiteralsToGlobalConstants {
-	private List<Integer> primaryLiterals;
+	private SymbolTable symtab;
 	private DashAST programNode;
+	private boolean debug_mode;
 
-	public LiteralsToGlobalConstants(DashAST root) {
-		primaryLiterals = (Arrays.asList(new Integer[] {
-				DashLexer.True,
-				DashLexer.False,
-				DashLexer.INTEGER,
-				DashLexer.REAL,
-				DashLexer.CHARACTER
-		}));
+	// the globals made so far, by the literal they hold
+	private Map<String, VariableSymbol> constants = new HashMap<String, VariableSymbol>();
+	private DashAST declarations = new DashAST();
+	private int hoisted;
+
+	public LiteralsToGlobalConstants(DashAST root, SymbolTable symtab) {
+		this(root, symtab, false);
+	}
 
-		programNode = (DashAST) root;
+	public LiteralsToGlobalConstants(DashAST root, SymbolTable symtab, boolean debug_mode) {
 		if (root.getType() != DashLexer.PROGRAM) {
-			/* TODO: Throw exception. */
+			throw new IllegalArgumentException("Expected a PROGRAM node, got " + root.getText());
 		}
+
+		this.programNode = root;
+		this.symtab = symtab;
+		this.debug_mode = debug_mode;
 	}
 
-	public void walk(DashAST t) {
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
 
-		switch (t.getType()) {
-		case DashLexer.TUPLE_LIST:
-			if (childrenExprsAreLiterals(t)) {
-				/* TODO: create a global variable with this value. */
-				/* TODO: swap this tuple with a use of the new global variable. */
+	/** Moves the literals of every function and procedure to globals,
+	 *  returns the number of literals replaced */
+	public int optimize() {
+		for (int i = 0; i < programNode.getChildCount(); i++) {
+			DashAST child = (DashAST) programNode.getChild(i);
+			int type = child.getType();
+			if (type == DashLexer.FUNCTION_DECL || type == DashLexer.PROCEDURE_DECL) {
+				walk(child);
 			}
-			break;
-		/* TODO: Handle other data types. */
+		}
+
+		// ahead of the other globals, their initializers may use them
+		if (declarations.getChildCount() > 0) {
+			declarations.addChild(programNode.getChild(0));
+			programNode.replaceChildren(0, 0, declarations);
+		}
+
+		return hoisted;
+	}
+
+	public void walk(DashAST t) {
+		if (isConstantLiteral(t) && !escapes(t)) {
+			replace(t);
+			return;
 		}
 
 		for (int i = 0; i < t.getChildCount(); i++) {
@@ -85,39 +114,150 @@ public class LiteralsToGlobalConstants {
 		}
 	}
 
+	// tuple, vector, matrix or interval of literals
+	private boolean isConstantLiteral(DashAST t) {
+		if (t.evalType == null || t.promoteToType != null) {
+			return false;
+		}
+
+		switch (t.getType()) {
+		case DashLexer.TUPLE_LIST:
+			return childrenExprsAreLiterals(t);
+
+		case DashLexer.VECTOR_LIST:
+			if (t.evalType.getTypeIndex() == SymbolTable.tVECTOR) {
+				return childrenExprsAreLiterals(t);
+			}
+
+			// the rows of a matrix
+			for (int i = 0; i < t.getChildCount(); i++) {
+				DashAST row = (DashAST) t.getChild(i).getChild(0);
+				if (row == null || row.getType() != DashLexer.VECTOR_LIST
+						|| row.promoteToType != null || !childrenExprsAreLiterals(row)) {
+					return false;
+				}
+			}
+			return true;
+
+		case DashLexer.RANGE:
+			return isLiteral((DashAST) t.getChild(0)) && isLiteral((DashAST) t.getChild(1));
+		}
+
+		return false;
+	}
+
 	private boolean childrenExprsAreLiterals(DashAST t) {
 		DashAST child;
 
 		for (int i = 0; i < t.getChildCount(); i++) {
 			child = (DashAST) t.getChild(i);
 
-			if (child.getType() == DashLexer.EXPR) {
-				if (!exprIsLiteral(child)) {
-					return false;
-				}
+			if (child.getType() != DashLexer.EXPR || child.getChildCount() != 1
+					|| !isLiteral((DashAST) child.getChild(0))) {
+				return false;
 			}
 		}
 
 		return true;
 	}
 
-	private boolean exprIsLiteral(DashAST expr) {
-		DashAST exprContent = (DashAST) expr.getChild(0);
+	private boolean isLiteral(DashAST t) {
+		return ConstantPropagation.value(t) != null;
+	}
 
-		int astType = exprContent.getType();
+	// whether the value of t is passed to a call or returned as it is
+	private boolean escapes(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
 
-		if (primaryLiterals.contains(astType)) {
-			return true;
+		while (parent != null) {
+			switch (parent.getType()) {
+			case DashLexer.EXPR:
+			case DashLexer.TYPECAST:
+				parent = (DashAST) parent.getParent();
+				break;
+			case DashLexer.ELIST:
+			case DashLexer.Return:
+				return true;
+			default:
+				return false;
+			}
 		}
 
-		/* TODO: Detect more possible valid cases. */
-
 		return false;
 	}
 
-	private VariableSymbol createGlobal(DashAST rhsExpr) {
-		/* TODO: Create new variable symbol. */
-		/* TODO: Insert VAR_DECL node under root, after the latest other globals var declarations. */
+	// the integer vector type an interval literal is turned into where it is
+	// used, null if it is used as an interval
+	private static Type vectorUse(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
+		if (t.getType() != DashLexer.RANGE || parent.evalType == null
+				|| parent.evalType.getTypeIndex() != SymbolTable.tVECTOR) {
+			return null;
+		}
+
+		switch (parent.getType()) {
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR:
+		case DashLexer.POWER:
+		case DashLexer.CONCAT:
+			Type element = ((VectorType) parent.evalType).elementType;
+			if (element.getTypeIndex() == SymbolTable.tINTEGER) {
+				return new VectorType(element, 0);
+			}
+		}
 		return null;
 	}
+
+	// replaces literal t by a use of the global holding its value
+	private void replace(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
+		int index = t.getChildIndex();
+
+		Type type = vectorUse(t);
+		if (type == null) {
+			type = t.evalType;
+		}
+
+		String literal = t.toStringTree();
+		String key = type.getName() + " " + literal;
+		VariableSymbol global = constants.get(key);
+		if (global == null) {
+			global = createGlobal(t, type);
+			constants.put(key, global);
+		}
+
+		debug("line " + t.getLine() + ": " + literal + " is " + global.name);
+
+		DashAST id = new DashAST(new CommonToken(DashLexer.ID, global.name));
+		id.symbol = global;
+		id.evalType = type;
+		parent.setChild(index, id);
+		hoisted++;
+	}
+
+	// declares a new global of type holding literal
+	private VariableSymbol createGlobal(DashAST literal, Type type) {
+		VariableSymbol global = new VariableSymbol(null, type, SymbolTable._const);
+		global.name = "__constant_" + global.id;
+		symtab.globals.define(global);
+
+		DashAST id = new DashAST(new CommonToken(DashLexer.ID, global.name));
+		id.symbol = global;
+		global.def = id;
+
+		DashAST expr = new DashAST(new CommonToken(DashLexer.EXPR, "EXPR"));
+		expr.evalType = literal.evalType;
+		expr.addChild(literal);
+
+		DashAST decl = new DashAST(new CommonToken(DashLexer.VAR_DECL, "VAR_DECL"));
+		decl.addChild(new DashAST(new CommonToken(DashLexer.INFERRED, "INFERRED")));
+		decl.addChild(id);
+		decl.addChild(expr);
+		declarations.addChild(decl);
+
+		return global;
+	}
 }
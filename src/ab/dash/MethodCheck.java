@@ -24,7 +24,8 @@ public class MethodCheck {
 		return errorSB.toString();
 	}
 
-	public void check(DashAST t) {
+	// checks a single node, check() does the whole tree
+	public void visit(DashAST t) {
 		switch (t.getType()) {
 		case DashLexer.CALL:
 			DashAST call_id = (DashAST) t.getChild(0);
@@ -45,6 +46,10 @@ public class MethodCheck {
 			}
 			break;
 		}
+	}
+
+	public void check(DashAST t) {
+		visit(t);
 
 		for (int i = 0; i < t.getChildCount(); i++) {
 			DashAST child = (DashAST) t.getChild(i);
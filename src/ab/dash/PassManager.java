@@ -0,0 +1,267 @@
+/** Runs the compiler passes over the AST in an order their dependencies
+ *  allow, sharing tree traversals between passes where that is safe.
+ *
+ *  Every pass names the passes it depends on. A pass that requires()
+ *  another needs it to have finished on the whole tree, for instance
+ *  because it looks at nodes the other pass has yet to reach. A pass that
+ *  only comes after() another needs it to have been at every node first.
+ *
+ *  NodePasses look at one node at a time. Consecutive NodePasses that do
+ *  not require one another are fused into a single traversal: at each node
+ *  the fused passes enter() in order before the children are visited and
+ *  exit() in order afterwards, the way downup() of an ANTLR filter grammar
+ *  visits the tree. Fusing can be switched off, running every pass in a
+ *  traversal of its own. **/
+package ab.dash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.tree.TreeRewriter;
+
+import ab.dash.ast.DashAST;
+import ab.dash.exceptions.SymbolTableException;
+
+public class PassManager {
+	/** A pass over the whole AST */
+	public static abstract class Pass {
+		private final String name;
+		private final List<String> required = new ArrayList<String>();
+		private final List<String> after = new ArrayList<String>();
+
+		public Pass(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Passes that have to finish on the whole tree before this one starts */
+		public Pass requires(String... passes) {
+			required.addAll(Arrays.asList(passes));
+			return this;
+		}
+
+		/** Passes that have to run before this one, node by node */
+		public Pass after(String... passes) {
+			after.addAll(Arrays.asList(passes));
+			return this;
+		}
+
+		public abstract void run(DashAST tree) throws SymbolTableException;
+	}
+
+	/** A pass that looks at one node at a time */
+	public static abstract class NodePass extends Pass {
+		public NodePass(String name) {
+			super(name);
+		}
+
+		/** Called before the children of t are visited, returns the node
+		 *  that replaces t */
+		public DashAST enter(DashAST t) {
+			return t;
+		}
+
+		/** Called after the children of t were visited, returns the node
+		 *  that replaces t */
+		public DashAST exit(DashAST t) {
+			return t;
+		}
+
+		/** True once the pass found errors. The passes fused after it are
+		 *  not run on the rest of the tree then, as they would not run at
+		 *  all without fusing. */
+		public boolean failed() {
+			return false;
+		}
+
+		/** Called after the traversal, throws the errors found if any */
+		public void finish() throws SymbolTableException {
+		}
+
+		public void run(DashAST tree) throws SymbolTableException {
+			List<NodePass> passes = new ArrayList<NodePass>();
+			passes.add(this);
+			walk(tree, passes);
+			finish();
+		}
+	}
+
+	/** Runs the topdown and bottomup rules of a filter grammar at every
+	 *  node, as its downup() does */
+	public static class RewriterPass extends NodePass {
+		private TreeRewriter rewriter;
+		private TreeRewriter.fptr topdown;
+		private TreeRewriter.fptr bottomup;
+
+		public RewriterPass(String name, final TreeRewriter rewriter) {
+			super(name);
+			this.rewriter = rewriter;
+			this.topdown = new TreeRewriter.fptr() {
+				public Object rule() throws RecognitionException {
+					return rewriter.topdown();
+				}
+			};
+			this.bottomup = new TreeRewriter.fptr() {
+				public Object rule() throws RecognitionException {
+					return rewriter.bottomup();
+				}
+			};
+		}
+
+		public DashAST enter(DashAST t) {
+			return (DashAST) rewriter.applyOnce(t, topdown);
+		}
+
+		public DashAST exit(DashAST t) {
+			return (DashAST) rewriter.applyRepeatedly(t, bottomup);
+		}
+	}
+
+	private List<Pass> passes = new ArrayList<Pass>();
+	private boolean fuse = true;
+
+	public PassManager add(Pass pass) {
+		passes.add(pass);
+		return this;
+	}
+
+	/** Whether NodePasses may share traversals, on by default */
+	public void setFusion(boolean fuse) {
+		this.fuse = fuse;
+	}
+
+	private Pass find(String name) {
+		for (Pass pass : passes) {
+			if (pass.name.equals(name)) {
+				return pass;
+			}
+		}
+		return null;
+	}
+
+	/** The passes in the order they run, passes sharing a traversal are
+	 *  grouped together. Of the passes whose dependencies have run, the one
+	 *  added first goes next. */
+	public List<List<Pass>> schedule() {
+		for (Pass pass : passes) {
+			List<String> dependencies = new ArrayList<String>(pass.required);
+			dependencies.addAll(pass.after);
+			for (String dependency : dependencies) {
+				if (find(dependency) == null) {
+					throw new IllegalStateException("pass " + pass.name + " depends on unknown pass " + dependency);
+				}
+			}
+		}
+
+		List<Pass> order = new ArrayList<Pass>();
+		Set<String> done = new HashSet<String>();
+		while (order.size() < passes.size()) {
+			Pass next = null;
+			for (Pass pass : passes) {
+				if (!done.contains(pass.name) && done.containsAll(pass.required) && done.containsAll(pass.after)) {
+					next = pass;
+					break;
+				}
+			}
+			if (next == null) {
+				throw new IllegalStateException("pass dependencies form a cycle");
+			}
+			order.add(next);
+			done.add(next.name);
+		}
+
+		List<List<Pass>> groups = new ArrayList<List<Pass>>();
+		List<Pass> group = null;
+		for (Pass pass : order) {
+			if (fuse && group != null && pass instanceof NodePass && group.get(0) instanceof NodePass
+					&& !requiresAny(pass, group)) {
+				group.add(pass);
+			} else {
+				group = new ArrayList<Pass>();
+				group.add(pass);
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
+	private static boolean requiresAny(Pass pass, List<Pass> group) {
+		for (Pass other : group) {
+			if (pass.required.contains(other.name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Name of a traversal, the names of its passes */
+	public static String name(List<Pass> group) {
+		StringBuilder sb = new StringBuilder();
+		for (Pass pass : group) {
+			sb.append(sb.length() > 0 ? "+" : "").append(pass.name);
+		}
+		return sb.toString();
+	}
+
+	/** Runs every pass, timing each traversal. Stops at the first pass
+	 *  that fails. */
+	public void run(DashAST tree, PassTimer timer) throws SymbolTableException {
+		for (List<Pass> group : schedule()) {
+			timer.phase(name(group));
+
+			if (group.size() == 1) {
+				group.get(0).run(tree);
+				continue;
+			}
+
+			List<NodePass> fused = new ArrayList<NodePass>();
+			for (Pass pass : group) {
+				fused.add((NodePass) pass);
+			}
+			walk(tree, fused);
+			for (NodePass pass : fused) {
+				pass.finish();
+			}
+		}
+	}
+
+	// visits t and its children like org.antlr.runtime.tree.TreeVisitor
+	private static DashAST walk(DashAST t, List<NodePass> passes) {
+		boolean nil = t.isNil();
+
+		if (!nil) {
+			for (NodePass pass : passes) {
+				t = pass.enter(t);
+				if (pass.failed()) {
+					break;
+				}
+			}
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++) {
+			DashAST child = (DashAST) t.getChild(i);
+			DashAST result = walk(child, passes);
+			if (result != t.getChild(i)) {
+				t.setChild(i, result);
+			}
+		}
+
+		if (!nil) {
+			for (NodePass pass : passes) {
+				t = pass.exit(t);
+				if (pass.failed()) {
+					break;
+				}
+			}
+		}
+
+		return t;
+	}
+}
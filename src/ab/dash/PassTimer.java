@@ -0,0 +1,170 @@
+/** Records how long each compiler pass takes, in the spirit of -Xtime-passes.
+ *
+ *  For every pass it keeps the wall clock time, the CPU time of the
+ *  compiling thread and the number of bytes that thread allocated, all taken
+ *  from the ThreadMXBean. Measurements the JVM does not support are reported
+ *  as -1. A pass ends when the next one starts or when finish() is called. **/
+package ab.dash;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PassTimer {
+	public static class Pass {
+		public final String name;
+		public long wallNanos;
+		public long cpuNanos;
+		public long allocatedBytes;
+
+		Pass(String name) {
+			this.name = name;
+		}
+	}
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private boolean enabled;
+	private List<Pass> passes;
+	private Pass current;
+	private long wallStart;
+	private long cpuStart;
+	private long allocatedStart;
+
+	public PassTimer() {
+		this(true);
+	}
+
+	private PassTimer(boolean enabled) {
+		this.enabled = enabled;
+		this.passes = new ArrayList<Pass>();
+	}
+
+	/** A timer that records nothing */
+	public static PassTimer disabled() {
+		return new PassTimer(false);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public List<Pass> getPasses() {
+		return passes;
+	}
+
+	/** Ends the running pass, if any, and starts timing the named one */
+	public void phase(String name) {
+		if (!enabled) {
+			return;
+		}
+
+		finish();
+		current = new Pass(name);
+		wallStart = System.nanoTime();
+		cpuStart = cpuTime();
+		allocatedStart = allocatedBytes();
+	}
+
+	/** Ends the running pass, if any */
+	public void finish() {
+		if (current == null) {
+			return;
+		}
+
+		long wall = System.nanoTime() - wallStart;
+		long cpu = cpuTime();
+		long allocated = allocatedBytes();
+
+		current.wallNanos = wall;
+		current.cpuNanos = cpuStart < 0 || cpu < 0 ? -1 : cpu - cpuStart;
+		current.allocatedBytes = allocatedStart < 0 || allocated < 0 ? -1 : allocated - allocatedStart;
+		passes.add(current);
+		current = null;
+	}
+
+	private static long cpuTime() {
+		if (!threads.isCurrentThreadCpuTimeSupported()) {
+			return -1;
+		}
+
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	// allocation counters are a HotSpot extension of ThreadMXBean
+	private static long allocatedBytes() {
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+		if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private Pass total() {
+		Pass total = new Pass("total");
+
+		for (Pass pass : passes) {
+			total.wallNanos += pass.wallNanos;
+			total.cpuNanos = total.cpuNanos < 0 || pass.cpuNanos < 0 ? -1 : total.cpuNanos + pass.cpuNanos;
+			total.allocatedBytes = total.allocatedBytes < 0 || pass.allocatedBytes < 0 ? -1
+					: total.allocatedBytes + pass.allocatedBytes;
+		}
+
+		return total;
+	}
+
+	private static String millis(long nanos) {
+		return nanos < 0 ? "n/a" : String.format("%.3f", nanos / 1e6);
+	}
+
+	private static String kilobytes(long bytes) {
+		return bytes < 0 ? "n/a" : String.format("%.1f", bytes / 1024.0);
+	}
+
+	private static String row(Pass pass, long totalWall) {
+		double percent = totalWall > 0 ? 100.0 * pass.wallNanos / totalWall : 0;
+		return String.format("%-24s %12s %12s %14s %7.1f%n", pass.name, millis(pass.wallNanos),
+				millis(pass.cpuNanos), kilobytes(pass.allocatedBytes), percent);
+	}
+
+	/** One line per pass followed by the totals */
+	public String toTable() {
+		Pass total = total();
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(String.format("%-24s %12s %12s %14s %7s%n", "pass", "wall ms", "cpu ms", "allocated KB", "wall %"));
+		for (Pass pass : passes) {
+			sb.append(row(pass, total.wallNanos));
+		}
+		sb.append(row(total, total.wallNanos));
+
+		return sb.toString();
+	}
+
+	private static String json(Pass pass) {
+		return "{\"name\": \"" + pass.name + "\", \"wallNanos\": " + pass.wallNanos + ", \"cpuNanos\": "
+				+ pass.cpuNanos + ", \"allocatedBytes\": " + pass.allocatedBytes + "}";
+	}
+
+	/** The same numbers as toTable(), as a JSON object */
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("{\"passes\": [");
+		for (int i = 0; i < passes.size(); i++) {
+			sb.append(i == 0 ? "\n  " : ",\n  ");
+			sb.append(json(passes.get(i)));
+		}
+		sb.append("\n], \"total\": ");
+		sb.append(json(total()));
+		sb.append("}");
+
+		return sb.toString();
+	}
+}
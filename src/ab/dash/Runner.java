@@ -1,20 +1,16 @@
 /**  Contains logic and static methods used to execute the program from Junit Tests **/
 package ab.dash;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
 
-import org.antlr.runtime.ANTLRFileStream;
 import org.antlr.runtime.RecognitionException;
-import org.antlr.runtime.TokenRewriteStream;
+import org.antlr.runtime.TokenStream;
 import org.antlr.runtime.tree.CommonTreeNodeStream;
+import org.antlr.runtime.tree.TreeRewriter;
 import org.antlr.stringtemplate.StringTemplateGroup;
 
 import ab.dash.ConvertNullAndIdentity;
@@ -24,6 +20,7 @@ import ab.dash.DashLexer;
 import ab.dash.DashParser;
 import ab.dash.Def;
 import ab.dash.Types;
+import ab.dash.ast.CompilationContext;
 import ab.dash.ast.DashAST;
 import ab.dash.ast.SymbolTable;
 import ab.dash.ast.Symbol;
@@ -35,9 +32,6 @@ import ab.dash.opt.Optimization;
 
 public class Runner {
 	
-    // needed to return tokens from lexer/parser pass
-    private static TokenRewriteStream tokens;
-    
     public static  void createFile(String filename, String input){
         File f = new File(filename);
         f.getAbsoluteFile().getParentFile().mkdirs();
@@ -54,12 +48,12 @@ public class Runner {
         }
       }
 
-    // grabs the input file name from args
-    private static ANTLRFileStream getInputStream(String[] args) {
-        ANTLRFileStream input = null;
+    // grabs the input file name from args, the file is read as the lexer goes
+    private static ChunkedFileStream getInputStream(String[] args) {
+        ChunkedFileStream input = null;
         
         try {
-            input = new ANTLRFileStream(args[0]);
+            input = new ChunkedFileStream(args[0]);
         } catch (IOException e) {
             throw new RuntimeException("Invalid program filename: " + args[0]);
         }
@@ -68,10 +62,11 @@ public class Runner {
     }
     
     // builds the AST in the lexer/parser, aborts if errors are found
-    private static DashAST runLexerParser(ANTLRFileStream input) throws LexerException, ParserException, RecognitionException {
+    private static DashAST runLexerParser(ChunkedFileStream input, CompilationContext context) throws LexerException, ParserException, RecognitionException {
         
         DashLexer lexer = new DashLexer(input);
-        tokens = new TokenRewriteStream(lexer);
+        StreamingTokenStream tokens = new StreamingTokenStream(lexer, input);
+        context.setTokens(tokens);
         DashParser parser = new DashParser(tokens);
         parser.setTreeAdaptor(DashAST.dashAdaptor);
         DashParser.program_return entry = parser.program();
@@ -95,16 +90,23 @@ public class Runner {
         return (DashAST)entry.getTree();
     }
     
-    // runs Def.g treewalker, aborts if errors are found
-    private static void runDef(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) throws SymbolTableException {
+    // runs ConvertStrings.g treewalker
+    private static void runConvertStrings(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) {
     	nodes.reset();
     	ConvertStrings stringConvert = new ConvertStrings(nodes, symtab, false);
     	stringConvert.downup(tree); 
-    	
+    }
+    
+    // runs Def.g treewalker, aborts if errors are found
+    private static void runDef(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) throws SymbolTableException {
     	nodes.reset();
     	Def def = new Def(nodes, symtab, false);
         def.downup(tree); 
-        
+        checkDef(symtab);
+    }
+    
+    // checks the rules for 'main' after Def.g, aborts if errors are found
+    private static void checkDef(SymbolTable symtab) throws SymbolTableException {
         //TODO: This logic for checking 'main' rules can probably be moved somewhere better
         Symbol main = symtab.globals.resolve("main");
         if (main == null || !(main instanceof MethodSymbol)) {
@@ -166,161 +168,268 @@ public class Runner {
         }
     }
     
-    // runs TuplePromotion.java, aborts if errors are found
-    private static void runTuplePromotion(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) throws SymbolTableException {
+    // runs optimization on code
+    private static void runOptimization(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) throws SymbolTableException {
         nodes.reset();
         
-        TupleConvertNullAndIdentity tupleUpdate = new TupleConvertNullAndIdentity();
-        tupleUpdate.check(tree);
+        Optimization opt = new Optimization(nodes, tree, symtab);
+        opt.optimize();
+    }
+
+    // the passes llvmCompile runs between the parser and the LLVM IR generator
+    private static PassManager frontEndPasses(final CommonTreeNodeStream nodes, final SymbolTable symtab) {
+        PassManager passes = new PassManager();
+        
+        passes.add(new PassManager.RewriterPass("ConvertStrings", new ConvertStrings(nodes, symtab, false)));
+        // Def looks at the types of declarations before ConvertStrings would get to them
+        passes.add(new PassManager.RewriterPass("Def", new Def(nodes, symtab, false)) {
+            public boolean failed() {
+                return symtab.getErrorCount() > 0;
+            }
+            
+            public void finish() throws SymbolTableException {
+                checkDef(symtab);
+            }
+        }.requires("ConvertStrings"));
+        passes.add(new SymbolTablePass("AddNullToUninitialized", new AddNullToUninitialized(nodes, symtab), symtab)
+                .requires("Def"));
+        // AddNullToUninitialized adds expressions Types has to visit
+        passes.add(new SymbolTablePass("Types", new Types(nodes, symtab), symtab).requires("AddNullToUninitialized"));
+        
+        final TupleConvertNullAndIdentity tupleUpdate = new TupleConvertNullAndIdentity();
+        passes.add(new PassManager.NodePass("TupleConvertNullAndIdentity") {
+            public DashAST enter(DashAST t) {
+                tupleUpdate.visit(t);
+                return t;
+            }
+            
+            public boolean failed() {
+                return tupleUpdate.getErrorCount() > 0;
+            }
+            
+            public void finish() throws SymbolTableException {
+                if (tupleUpdate.getErrorCount() > 0) {
+                    throw new SymbolTableException(tupleUpdate.getErrors());
+                }
+            }
+        }.requires("Types"));
+        
+        // TuplePromotion and DefineTupleTypes only look at a node, its
+        // children and their types, which the passes before them set when
+        // they visit the node or its ancestors
+        final TuplePromotion tuplePromotion = new TuplePromotion();
+        passes.add(new PassManager.NodePass("TuplePromotion") {
+            public DashAST enter(DashAST t) {
+                tuplePromotion.visit(t);
+                return t;
+            }
+            
+            public boolean failed() {
+                return tuplePromotion.getErrorCount() > 0;
+            }
+            
+            public void finish() throws SymbolTableException {
+                if (tuplePromotion.getErrorCount() > 0) {
+                    throw new SymbolTableException(tuplePromotion.getErrors());
+                }
+            }
+        }.after("TupleConvertNullAndIdentity"));
+        
+        final DefineTupleTypes tupleTypes = new DefineTupleTypes(symtab);
+        tupleTypes.debug_off();
+        passes.add(new PassManager.NodePass("DefineTupleTypes") {
+            public DashAST enter(DashAST t) {
+                tupleTypes.visit(t);
+                return t;
+            }
+        }.after("TuplePromotion"));
+        
+        // converts an expression on the way up, after DefineTupleTypes saw
+        // its type on the way down
+        passes.add(new SymbolTablePass("ConvertNullAndIdentity", new ConvertNullAndIdentity(nodes, symtab), symtab)
+                .after("DefineTupleTypes"));
+        // checks the whole program before dead code elimination deletes any
+        final MethodCheck checker = new MethodCheck();
+        passes.add(new PassManager.NodePass("MethodCheck") {
+            public DashAST enter(DashAST t) {
+                checker.visit(t);
+                return t;
+            }
+            
+            public boolean failed() {
+                return checker.getErrorCount() > 0;
+            }
+            
+            public void finish() throws SymbolTableException {
+                if (checker.getErrorCount() > 0) {
+                    throw new SymbolTableException(checker.getErrors());
+                }
+            }
+        }.after("ConvertNullAndIdentity"));
+        
+        // only deletes type definitions, streams and forward declarations,
+        // none of which MethodCheck has anything to check in
+        final CleanAST clean = new CleanAST();
+        passes.add(new PassManager.NodePass("CleanAST") {
+            public DashAST enter(DashAST t) {
+                clean.visit(t);
+                return t;
+            }
+        }.after("MethodCheck"));
+        
+        passes.add(new PassManager.Pass("Optimization") {
+            public void run(DashAST tree) throws SymbolTableException {
+                runOptimization(nodes, symtab, tree);
+            }
+        }.requires("CleanAST"));
+        
+        // moves the literals left after optimization out of the methods
+        passes.add(new PassManager.Pass("LiteralsToGlobalConstants") {
+            public void run(DashAST tree) {
+                new LiteralsToGlobalConstants(tree, symtab).optimize();
+            }
+        }.requires("Optimization"));
+        
+        return passes;
+    }
+    
+    // a tree grammar pass that reports its errors to the symbol table
+    private static class SymbolTablePass extends PassManager.RewriterPass {
+        private SymbolTable symtab;
         
-        if (tupleUpdate.getErrorCount() > 0) {
-            throw new SymbolTableException(tupleUpdate.getErrors());
+        SymbolTablePass(String name, TreeRewriter rewriter, SymbolTable symtab) {
+            super(name, rewriter);
+            this.symtab = symtab;
         }
         
-        nodes.reset();
-        
-        TuplePromotion tupleTypeComp = new TuplePromotion();
-        tupleTypeComp.check(tree);
-        
-        if (tupleTypeComp.getErrorCount() > 0) {
-            throw new SymbolTableException(tupleTypeComp.getErrors());
+        public boolean failed() {
+            return symtab.getErrorCount() > 0;
         }
-    }
-    
-    // runs optimization on code
-    private static void runOptimization(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree) throws SymbolTableException {
-        nodes.reset();
         
-        Optimization opt = new Optimization(nodes, tree, symtab);
-        opt.optimize();
+        public void finish() throws SymbolTableException {
+            if (symtab.getErrorCount() > 0) {
+                throw new SymbolTableException(symtab.getErrors());
+            }
+        }
     }
 
     // generates LLVM code
-    private static String runLLVMIRgenerator(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree, TokenRewriteStream tokens) {
-       StringBuilder sb;
-       sb = new StringBuilder();
-       
-       String[] STGFiles = new String[] {
-               "StringTemplate/LLVM.stg",
-               "StringTemplate/LLVM_Bool.stg",
-               "StringTemplate/LLVM_Char.stg",
-               "StringTemplate/LLVM_Int.stg",
-               "StringTemplate/LLVM_Real.stg",
-               "StringTemplate/LLVM_Tuple.stg",
-               "StringTemplate/LLVM_Interval.stg",
-               "StringTemplate/LLVM_Vector.stg",
-               "StringTemplate/LLVM_Matrix.stg"
-               };
-       
-       for (String s : STGFiles)
-           sb.append(SlurpFile(s));
-       
-       StringTemplateGroup stg = new StringTemplateGroup(
-               new StringReader(sb.toString()));
-       
+    private static String runLLVMIRgenerator(CommonTreeNodeStream nodes, SymbolTable symtab, DashAST tree, StringTemplateGroup stg) {
        LLVMIRGenerator llvm = new LLVMIRGenerator(stg, symtab);
        
        nodes.reset();
-       tokens.reset();
        llvm.build(tree);
        return llvm.toString();
     }
     
-    private static String SlurpFile(String f) {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader br;
+    // used by ASTtest
+    public static void astTestMain(String[] args) throws LexerException, ParserException, RecognitionException {
+        CompilationContext context = new CompilationContext().enter();
         try {
-            br = new BufferedReader(new FileReader(f));
-            String l;
-
-            while ((l = br.readLine()) != null)
-                sb.append(l + System.getProperty("line.separator"));
-
-            br.close();
+            ChunkedFileStream input = getInputStream(args);
+            DashAST tree = runLexerParser(input, context);
+            System.out.println(tree.toStringTree());
+        } finally {
+            context.exit();
+        }
+    }
+    
+    // used by DefTest
+    public static SymbolTable defTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
+        CompilationContext context = new CompilationContext().enter();
+        try {
+            ChunkedFileStream input = getInputStream(args);
+            DashAST tree = runLexerParser(input, context);
             
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+            CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
+            nodes.setTokenStream(context.getTokens());
+            SymbolTable symtab = new SymbolTable(context.getTokens()); 
+            runConvertStrings(nodes, symtab, tree);
+            runDef(nodes, symtab, tree);
+            return symtab;
+        } finally {
+            context.exit();
         }
-        
-        return sb.toString();
     }
     
-    private static void deleteNoLongerNeeded(CommonTreeNodeStream nodes, DashAST tree) {
-        nodes.reset();
-        CleanAST clean = new CleanAST();
-        clean.clean(tree);
+    // used by NullAndIdentityTests, prints AST for use in Tests
+    public static void nullTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
+        CompilationContext context = new CompilationContext().enter();
+        try {
+            ChunkedFileStream input = getInputStream(args);
+            DashAST tree = runLexerParser(input, context);
+            
+            CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
+            nodes.setTokenStream(context.getTokens());
+            SymbolTable symtab = new SymbolTable(context.getTokens()); 
+            runConvertStrings(nodes, symtab, tree);
+            runDef(nodes, symtab, tree);
+            runNullUninitializedValues(nodes, symtab, tree);
+            runTypes(nodes, symtab, tree);
+            runDefineTupleTypes(nodes, symtab, tree);
+            runNullAndIdentitySweep(nodes, symtab, tree);
+            System.out.println(tree.toStringTree());
+        } finally {
+            context.exit();
+        }
     }
     
-    private static void methodCheck(CommonTreeNodeStream nodes, DashAST tree) throws SymbolTableException {
-        nodes.reset();
-        MethodCheck checker = new MethodCheck();
-        checker.check(tree);
-        
-        if (checker.getErrorCount() > 0) {
-            throw new SymbolTableException(checker.getErrors());
+    // used by TypeTest
+    public static void typesTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
+        CompilationContext context = new CompilationContext().enter();
+        try {
+            ChunkedFileStream input = getInputStream(args);
+            DashAST tree = runLexerParser(input, context);
+            
+            CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
+            nodes.setTokenStream(context.getTokens());
+            SymbolTable symtab = new SymbolTable(context.getTokens()); 
+            runConvertStrings(nodes, symtab, tree);
+            runDef(nodes, symtab, tree);
+            runNullUninitializedValues(nodes, symtab, tree);
+            runTypes(nodes, symtab, tree);
+            runDefineTupleTypes(nodes, symtab, tree);
+        } finally {
+            context.exit();
         }
     }
     
-    // used by ASTtest
-    public static void astTestMain(String[] args) throws LexerException, ParserException, RecognitionException {
-        ANTLRFileStream input = getInputStream(args);
-        DashAST tree = runLexerParser(input);
-        System.out.println(tree.toStringTree());
+    public static CompileOutput llvmCompile(String[] args) throws IOException, InterruptedException {
+        return llvmCompile(args, LLVMTemplates.get());
     }
     
-    // used by DefTest
-    public static SymbolTable defTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
-        ANTLRFileStream input = getInputStream(args);
-        DashAST tree = runLexerParser(input);
-        
-        CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
-        nodes.setTokenStream(tokens);
-        SymbolTable symtab = new SymbolTable(tokens); 
-        runDef(nodes, symtab, tree);
-        return symtab;
+    // used by CompileServer and BatchCompiler, which pass in the shared templates.
+    // Each call runs in its own CompilationContext, so calls from different threads may overlap.
+    public static CompileOutput llvmCompile(String[] args, StringTemplateGroup stg) throws IOException, InterruptedException {
+        return llvmCompile(args, stg, PassTimer.disabled());
     }
     
-    // used by NullAndIdentityTests, prints AST for use in Tests
-    public static void nullTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
-        ANTLRFileStream input = getInputStream(args);
-        DashAST tree = runLexerParser(input);
-        
-        CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
-        nodes.setTokenStream(tokens);
-        SymbolTable symtab = new SymbolTable(tokens); 
-        runDef(nodes, symtab, tree);
-        runNullUninitializedValues(nodes, symtab, tree);
-        runTypes(nodes, symtab, tree);
-        runDefineTupleTypes(nodes, symtab, tree);
-        runNullAndIdentitySweep(nodes, symtab, tree);
-        System.out.println(tree.toStringTree());
+    // as above, recording the time spent in every pass in timer
+    public static CompileOutput llvmCompile(String[] args, StringTemplateGroup stg, PassTimer timer) throws IOException, InterruptedException {
+        return llvmCompile(args, stg, timer, true);
     }
     
-    // used by TypeTest
-    public static void typesTestMain(String[] args) throws LexerException, ParserException, RecognitionException, SymbolTableException {
-        ANTLRFileStream input = getInputStream(args);
-        DashAST tree = runLexerParser(input);
-        
-        CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
-        nodes.setTokenStream(tokens);
-        SymbolTable symtab = new SymbolTable(tokens); 
-        runDef(nodes, symtab, tree);
-        runNullUninitializedValues(nodes, symtab, tree);
-        runTypes(nodes, symtab, tree);
-        runDefineTupleTypes(nodes, symtab, tree);
+    // as above, without fusePasses every pass walks the tree on its own
+    public static CompileOutput llvmCompile(String[] args, StringTemplateGroup stg, PassTimer timer, boolean fusePasses) throws IOException, InterruptedException {
+        CompilationContext context = new CompilationContext().enter();
+        try {
+            return llvmCompile(args, stg, timer, fusePasses, context);
+        } finally {
+            timer.finish();
+            context.exit();
+        }
     }
     
-    public static CompileOutput llvmCompile(String[] args) throws IOException, InterruptedException {
+    private static CompileOutput llvmCompile(String[] args, StringTemplateGroup stg, PassTimer timer, boolean fusePasses, CompilationContext context) throws IOException, InterruptedException {
     	// build the AST
         
-        ANTLRFileStream input = getInputStream(args);
+        timer.phase("LexerParser");
+        ChunkedFileStream input = getInputStream(args);
         
 
         DashAST tree;
         try {
-            tree = runLexerParser(input);
+            tree = runLexerParser(input, context);
         } catch (LexerException e) {
         	return null;
         } catch (ParserException e) {
@@ -329,94 +438,86 @@ public class Runner {
         	return null;
         }
 
+        TokenStream tokens = context.getTokens();
         CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
         nodes.setTokenStream(tokens);
         SymbolTable symtab = new SymbolTable(tokens);
         
         // run tree walker passes
         
+        PassManager passes = frontEndPasses(nodes, symtab);
+        passes.setFusion(fusePasses);
         try {
-            runDef(nodes, symtab, tree);
-            runNullUninitializedValues(nodes, symtab, tree);
-            runTypes(nodes, symtab, tree);
-            runTuplePromotion(nodes, symtab, tree);
-            runDefineTupleTypes(nodes, symtab, tree);
-            runNullAndIdentitySweep(nodes, symtab, tree);
-            runOptimization(nodes, symtab, tree);
-            methodCheck(nodes, tree);
+            passes.run(tree, timer);
         } catch (SymbolTableException e) {
             return null;
         }
         
         // generate llvm
         
-        deleteNoLongerNeeded(nodes, tree);
-        
-        String llvm = runLLVMIRgenerator(nodes, symtab, tree, tokens);
+        timer.phase("LLVMIRGenerator");
+        String llvm = runLLVMIRgenerator(nodes, symtab, tree, stg);
         
         return new CompileOutput(llvm, tree);
     }
     
     // used by LLVMtest
     public static void llvmMain(String[] args) throws IOException, InterruptedException {
+        llvmMain(args, new Toolchain(), BuildCache.fromEnvironment());
+    }
+    
+    // compiles, builds and runs a program. Unchanged programs are taken from
+    // the cache, if there is one, without running the compiler or llc/clang.
+    public static void llvmMain(String[] args, Toolchain toolchain, BuildCache cache) throws IOException, InterruptedException {
+        File input = args.length > 1 ? new File(args[1]) : null;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        
+        String key = null;
+        File entry = null;
+        if (cache != null) {
+            try {
+                key = cache.key(new File(args[0]), toolchain);
+                entry = cache.lookup(key);
+            } catch (IOException e) {
+                // unreadable source, let the compiler report it
+            }
+        }
         
-    	CompileOutput llvm_output = llvmCompile(args);
-    	
-    	if (llvm_output == null) {
-    		return;
-    	}
-        
-        String file = "LLVMIROutput/" + args[0].substring((args[0].lastIndexOf('/')+1));
+        // every program gets its own directory, so programs with the same
+        // name can be built at the same time
+        String file = "LLVMIROutput/" + args[0].replaceFirst("^/+", "");
         
-        String ast = llvm_output.tree.toStringTree();
-        String ast_file = file + ".ast";
-        createFile(ast_file, ast);
-
-        String llvm_file = file + ".ll";
-        createFile(llvm_file, llvm_output.llvm);
-        
-        String object_file = file + ".o";
-        String executable = file.substring(0, (file.lastIndexOf('.')));
-        
-        // execute llvm and print it in stdout/stderr
-    	Process p = null;
-    	if (args.length > 1) {
-    		String[] cmd = {
-    				"/bin/sh",
-    				"-c",
-    				//"make runtime > /dev/null && " +
-    				"llc " + llvm_file + " -filetype=obj && " +
-    				"clang -g " + object_file + " -o " + executable + " -L. -lruntime -lm && " +
-    				"cat " + args[1] + " | ./" + executable
-    				};
-    		p = Runtime.getRuntime().exec(cmd);
+        if (entry != null) {
+            // the .ll and .ast as a build would leave them
+            cache.restore(entry, new File(file + ".ll"), new File(file + ".ast"));
+            toolchain.execute(new File(entry, BuildCache.EXECUTABLE), input, output, errors);
         } else {
-        	String[] cmd = {
-        			"/bin/sh",
-    				"-c",
-    				//"make runtime > /dev/null && " +
-    				"llc " + llvm_file + " -filetype=obj && " +
-    				"clang -g " + object_file + " -o " + executable + " -L. -lruntime -lm && " +
-    				"./" + executable
-    				};
-        	p = Runtime.getRuntime().exec(cmd);
+            CompileOutput llvm_output = llvmCompile(args);
+            
+            if (llvm_output == null) {
+                return;
+            }
+            
+            String ast = llvm_output.tree.toStringTree();
+            String ast_file = file + ".ast";
+            createFile(ast_file, ast);
+            
+            String llvm_file = file + ".ll";
+            createFile(llvm_file, llvm_output.llvm);
+            
+            File object_file = new File(file + ".o");
+            File executable = new File(file.substring(0, (file.lastIndexOf('.'))));
+            
+            // pipe the llvm through llc, link and execute it
+            if (toolchain.build(llvm_output.llvm, object_file, executable, errors) == 0) {
+                if (key != null) {
+                    cache.store(key, new File(llvm_file), new File(ast_file), object_file, executable);
+                }
+                toolchain.execute(executable, input, output, errors);
+            }
         }
         
-        p.waitFor();
-        
-        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        BufferedReader errorReader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-
-        StringBuffer output = new StringBuffer();
-        StringBuffer errors = new StringBuffer();
-        String line = null;
-        
-        while ((line = reader.readLine()) != null) {output.append(line); output.append("\n");}
-        while ((line = errorReader.readLine()) != null) {errors.append(line); errors.append("\n");}
-        
-        if (reader != null) reader.close();
-        if (errorReader != null) errorReader.close();
-        
         System.out.println(output.toString().trim());
         System.err.println(errors.toString().trim());
     }
@@ -0,0 +1,282 @@
+/** Token stream for the parser that does not keep every token of the
+ *  program, unlike CommonTokenStream. Tokens off the default channel are
+ *  dropped as soon as they are read. Consumed tokens are dropped once no
+ *  mark can rewind to them any more. Only the previous token, LT(-1), is
+ *  always kept.
+ *
+ *  The text of a range of tokens is still available for error messages. It
+ *  is rebuilt from the character stream using the character offsets of
+ *  every token, which are recorded as the tokens are read. Tokens whose text
+ *  differs from their source, like string literals or the CALL and INFERRED
+ *  tokens the parser renames, are taken from the tree with toString(Tree),
+ *  or remembered when they are dropped. **/
+package ab.dash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
+
+public class StreamingTokenStream implements TokenStream {
+	// consumed tokens are dropped in batches of at least this many
+	private static final int DISCARD_THRESHOLD = 1024;
+
+	private TokenSource source;
+	private CharStream chars;
+	private boolean eof;
+
+	// default channel tokens, tokens.get(0) is at position head
+	private List<Token> tokens = new ArrayList<Token>();
+	private int head;
+	private int p;
+
+	private int markDepth;
+	private int lastMarker;
+
+	// source characters of every token read, by token index
+	private int[] starts = new int[1024];
+	private int[] stops = new int[1024];
+	private int count;
+
+	// text of dropped tokens that is not their source text
+	private Map<Integer, String> texts = new HashMap<Integer, String>();
+
+	public StreamingTokenStream(TokenSource source, CharStream chars) {
+		this.source = source;
+		this.chars = chars;
+	}
+
+	// reads tokens until position i is buffered or the input ends
+	private void fetch(int i) {
+		while (tokens.size() <= i && !eof) {
+			Token t = source.nextToken();
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				stops = Arrays.copyOf(stops, count * 2);
+			}
+
+			t.setTokenIndex(count);
+			starts[count] = ((CommonToken) t).getStartIndex();
+			stops[count] = ((CommonToken) t).getStopIndex();
+			count++;
+
+			if (t.getType() == Token.EOF) {
+				eof = true;
+				tokens.add(t);
+			} else if (t.getChannel() == Token.DEFAULT_CHANNEL) {
+				// fix the text while its characters are still buffered
+				t.setText(t.getText());
+				tokens.add(t);
+			}
+		}
+	}
+
+	// drops consumed tokens except LT(-1), unless a mark may rewind to them
+	private void discard() {
+		if (markDepth > 0 || p <= DISCARD_THRESHOLD) {
+			return;
+		}
+
+		List<Token> dropped = tokens.subList(0, p - 1);
+		for (Token t : dropped) {
+			int i = t.getTokenIndex();
+			String text = t.getText();
+			if (text != null && text.length() != stops[i] - starts[i] + 1) {
+				texts.put(i, text);
+			}
+		}
+
+		head += dropped.size();
+		p -= dropped.size();
+		dropped.clear();
+	}
+
+	public void consume() {
+		// like CommonTokenStream, consuming EOF makes it LT(-1)
+		fetch(p);
+		if (p < tokens.size()) {
+			p++;
+			discard();
+		}
+	}
+
+	public int LA(int i) {
+		Token t = LT(i);
+		return t == null ? Token.INVALID_TOKEN_TYPE : t.getType();
+	}
+
+	public Token LT(int k) {
+		if (k == 0) {
+			return null;
+		}
+		if (k < 0) {
+			return p + k < 0 ? null : tokens.get(p + k);
+		}
+
+		int i = p + k - 1;
+		fetch(i);
+		return i < tokens.size() ? tokens.get(i) : tokens.get(tokens.size() - 1);
+	}
+
+	// buffered token with the given token index, null if it is not buffered
+	private Token buffered(int index) {
+		int low = 0;
+		int high = tokens.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midIndex = tokens.get(mid).getTokenIndex();
+			if (midIndex < index) {
+				low = mid + 1;
+			} else if (midIndex > index) {
+				high = mid - 1;
+			} else {
+				return tokens.get(mid);
+			}
+		}
+		return null;
+	}
+
+	public Token get(int i) {
+		Token t = buffered(i);
+		if (t == null) {
+			throw new NoSuchElementException("token " + i + " is no longer buffered");
+		}
+		return t;
+	}
+
+	public int index() {
+		return head + p;
+	}
+
+	public int range() {
+		return head + tokens.size() - 1;
+	}
+
+	public int size() {
+		return head + tokens.size();
+	}
+
+	public int mark() {
+		markDepth++;
+		lastMarker = index();
+		return lastMarker;
+	}
+
+	public void rewind(int marker) {
+		markDepth--;
+		seek(marker);
+	}
+
+	public void rewind() {
+		seek(lastMarker);
+	}
+
+	public void release(int marker) {
+		// nothing to release, tokens are kept while markDepth > 0
+	}
+
+	public void seek(int index) {
+		if (index < head) {
+			throw new IllegalStateException("cannot seek to token " + index + ", it was already dropped");
+		}
+		p = index - head;
+	}
+
+	public TokenSource getTokenSource() {
+		return source;
+	}
+
+	public String getSourceName() {
+		return source.getSourceName();
+	}
+
+	// text of token i if it is not its source text, null otherwise
+	private String changedText(int i, Map<Integer, String> overrides) {
+		String text = overrides.get(i);
+		if (text == null) {
+			text = texts.get(i);
+		}
+		if (text == null) {
+			Token t = buffered(i);
+			if (t != null && t.getText() != null && t.getText().length() != stops[i] - starts[i] + 1) {
+				text = t.getText();
+			}
+		}
+		return text;
+	}
+
+	private String toString(int start, int stop, Map<Integer, String> overrides) {
+		if (start < 0 || stop < 0) {
+			return null;
+		}
+		if (eof) {
+			stop = Math.min(stop, count - 2); // leave out EOF
+		} else {
+			stop = Math.min(stop, count - 1);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		int from = start; // first token not appended yet
+		for (int i = start; i <= stop; i++) {
+			String text = changedText(i, overrides);
+			// characters the lexer rejected between tokens are left out
+			boolean gap = i > from && stops[i - 1] + 1 != starts[i];
+			if (text != null || gap) {
+				if (from < i) {
+					sb.append(chars.substring(starts[from], stops[i - 1]));
+				}
+				from = i;
+			}
+			if (text != null) {
+				sb.append(text);
+				from = i + 1;
+			}
+		}
+		if (from <= stop) {
+			sb.append(chars.substring(starts[from], stops[stop]));
+		}
+		return sb.toString();
+	}
+
+	public String toString(int start, int stop) {
+		return toString(start, stop, new HashMap<Integer, String>());
+	}
+
+	public String toString(Token start, Token stop) {
+		if (start == null || stop == null) {
+			return null;
+		}
+		return toString(start.getTokenIndex(), stop.getTokenIndex());
+	}
+
+	private static void collectTexts(Tree t, Map<Integer, String> overrides) {
+		if (t instanceof CommonTree) {
+			Token token = ((CommonTree) t).getToken();
+			if (token != null && token.getTokenIndex() >= 0 && !overrides.containsKey(token.getTokenIndex())) {
+				overrides.put(token.getTokenIndex(), token.getText());
+			}
+		}
+		for (int i = 0; i < t.getChildCount(); i++) {
+			collectTexts(t.getChild(i), overrides);
+		}
+	}
+
+	/** Text of the tokens a tree was parsed from, as CommonTokenStream gives
+	 *  it. The parser may change the text of a token after it was dropped,
+	 *  so the text of the tokens the tree holds is used for those. */
+	public String toString(Tree t) {
+		Map<Integer, String> overrides = new HashMap<Integer, String>();
+		collectTexts(t, overrides);
+		return toString(t.getTokenStartIndex(), t.getTokenStopIndex(), overrides);
+	}
+}
@@ -0,0 +1,207 @@
+/** Drives the native tools that turn generated LLVM IR into a running
+ *  program: optionally opt, then llc, clang and finally the executable.
+ *
+ *  The IR is piped into the first tool's stdin instead of being read back
+ *  from disk, and when opt is enabled its output is streamed straight into
+ *  llc. Every child's stdout and stderr are drained by their own threads
+ *  while it runs, so a chatty program can not block on a full pipe. The
+ *  executable is linked against the prebuilt libruntime.a (make runtime).
+ *
+ *  The optimization level for opt can be chosen with setOptLevel() or the
+ *  dash.opt.level system property, -1 (the default) skips opt entirely. **/
+package ab.dash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class Toolchain {
+	/** Output of a tool run, or of the tools run up to the first failure */
+	public static class Result {
+		public int exitCode;
+		public String output;
+		public String errors;
+	}
+
+	private String llc = "llc";
+	private String opt = "opt";
+	private String clang = "clang";
+	private File runtimeDir = new File(".");
+	private int optLevel;
+
+	public Toolchain() {
+		this.optLevel = Integer.getInteger("dash.opt.level", -1);
+	}
+
+	public int getOptLevel() {
+		return optLevel;
+	}
+
+	public void setOptLevel(int optLevel) {
+		this.optLevel = optLevel;
+	}
+
+	public File getRuntimeDir() {
+		return runtimeDir;
+	}
+
+	public void setRuntimeDir(File runtimeDir) {
+		this.runtimeDir = runtimeDir;
+	}
+
+	// copies in to out on a separate thread, closing out when the input ends
+	// if closeOut is set
+	private static Thread pump(final InputStream in, final OutputStream out, final boolean closeOut) {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[8192];
+				int n;
+
+				try {
+					while ((n = in.read(buffer)) != -1) {
+						out.write(buffer, 0, n);
+					}
+					out.flush();
+				} catch (IOException e) {
+					// the other side went away, e.g. a tool exited early
+				} finally {
+					try {
+						in.close();
+						if (closeOut) {
+							out.close();
+						}
+					} catch (IOException e) {
+					}
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/** Runs a pipeline of commands, stdin feeding the first one and every
+	 *  command's stdout feeding the next. The last stdout goes to out and
+	 *  all stderr output is collected in err. Returns the first non zero
+	 *  exit code, or 0. */
+	public static int run(List<String[]> commands, InputStream stdin, OutputStream out, OutputStream err)
+			throws IOException, InterruptedException {
+		return run(commands, null, stdin, out, err);
+	}
+
+	/** As above, with extra environment variables for every command */
+	public static int run(List<String[]> commands, Map<String, String> environment, InputStream stdin,
+			OutputStream out, OutputStream err) throws IOException, InterruptedException {
+		List<Process> processes = new ArrayList<Process>();
+		List<Thread> pumps = new ArrayList<Thread>();
+		InputStream previous = stdin;
+
+		try {
+			for (int i = 0; i < commands.size(); i++) {
+				ProcessBuilder builder = new ProcessBuilder(commands.get(i));
+				if (environment != null) {
+					builder.environment().putAll(environment);
+				}
+				Process p = builder.start();
+				processes.add(p);
+
+				pumps.add(pump(previous, p.getOutputStream(), true));
+				pumps.add(pump(p.getErrorStream(), err, false));
+				previous = p.getInputStream();
+			}
+			pumps.add(pump(previous, out, false));
+
+			int exitCode = 0;
+			for (Process p : processes) {
+				int code = p.waitFor();
+				if (exitCode == 0) {
+					exitCode = code;
+				}
+			}
+			for (Thread t : pumps) {
+				t.join();
+			}
+
+			return exitCode;
+		} finally {
+			for (Process p : processes) {
+				p.destroy();
+			}
+		}
+	}
+
+	/** Compiles LLVM IR into an object file */
+	public int assemble(String llvm, File objectFile, OutputStream err) throws IOException, InterruptedException {
+		List<String[]> commands = new ArrayList<String[]>();
+		objectFile.getAbsoluteFile().getParentFile().mkdirs();
+
+		if (optLevel >= 0) {
+			commands.add(new String[] {opt, "-O" + optLevel, "-S"});
+		}
+		commands.add(new String[] {llc, "-filetype=obj", "-o", objectFile.getPath()});
+
+		return run(commands, new ByteArrayInputStream(llvm.getBytes("UTF-8")), err, err);
+	}
+
+	/** Links an object file with the Dash runtime */
+	public int link(File objectFile, File executable, OutputStream err) throws IOException, InterruptedException {
+		if (!new File(runtimeDir, "libruntime.a").exists()) {
+			err.write(("error: " + new File(runtimeDir, "libruntime.a").getPath()
+					+ " not found, run make runtime\n").getBytes());
+			return 1;
+		}
+
+		String[] cmd = {clang, "-g", objectFile.getPath(), "-o", executable.getPath(),
+				"-L" + runtimeDir.getPath(), "-lruntime", "-lm"};
+		return run(Collections.singletonList(cmd), new ByteArrayInputStream(new byte[0]), err, err);
+	}
+
+	/** Assembles and links LLVM IR into an executable */
+	public int build(String llvm, File objectFile, File executable, OutputStream err)
+			throws IOException, InterruptedException {
+		int exitCode = assemble(llvm, objectFile, err);
+		if (exitCode == 0) {
+			exitCode = link(objectFile, executable, err);
+		}
+		return exitCode;
+	}
+
+	/** Runs an executable, feeding it input if not null */
+	public int execute(File executable, File input, OutputStream out, OutputStream err)
+			throws IOException, InterruptedException {
+		return execute(executable, input, null, out, err);
+	}
+
+	/** As above, with extra environment variables */
+	public int execute(File executable, File input, Map<String, String> environment, OutputStream out,
+			OutputStream err) throws IOException, InterruptedException {
+		InputStream stdin = input == null ? new ByteArrayInputStream(new byte[0]) : new FileInputStream(input);
+		String[] cmd = {executable.getAbsolutePath()};
+		return run(Collections.singletonList(cmd), environment, stdin, out, err);
+	}
+
+	/** Builds and runs a program, stopping at the first step that fails */
+	public Result compileAndRun(String llvm, File objectFile, File executable, File input)
+			throws IOException, InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Result result = new Result();
+
+		result.exitCode = build(llvm, objectFile, executable, err);
+		if (result.exitCode == 0) {
+			result.exitCode = execute(executable, input, out, err);
+		}
+
+		result.output = out.toString();
+		result.errors = err.toString();
+		return result;
+	}
+}
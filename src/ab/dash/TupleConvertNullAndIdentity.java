@@ -33,7 +33,9 @@ public class TupleConvertNullAndIdentity {
 		return errorSB.toString();
 	}
 
-	public void check(DashAST t) {
+	// converts the null and identity tuple members of a single node,
+	// check() does the whole tree
+	public void visit(DashAST t) {
 		DashAST arg1 = null;
 		DashAST arg2 = null;
 		switch (t.getToken().getType()) {
@@ -159,7 +161,11 @@ public class TupleConvertNullAndIdentity {
 			}
 		}
 		}
-		
+	}
+
+	public void check(DashAST t) {
+		visit(t);
+
 		for (int i = 0; i < t.getChildCount(); i++) {
 			DashAST child = (DashAST) t.getChild(i);
 			check(child);
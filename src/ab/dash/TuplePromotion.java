@@ -33,7 +33,8 @@ public class TuplePromotion {
 		return errorSB.toString();
 	}
 
-	public void check(DashAST t) {
+	// promotes the tuples of a single node, check() does the whole tree
+	public void visit(DashAST t) {
 		boolean var_decl = false;
 		DashAST arg1 = null;
 		DashAST arg2 = null;
@@ -140,7 +141,11 @@ public class TuplePromotion {
 			}
 		}
 		}
-		
+	}
+
+	public void check(DashAST t) {
+		visit(t);
+
 		for (int i = 0; i < t.getChildCount(); i++) {
 			DashAST child = (DashAST) t.getChild(i);
 			check(child);
@@ -0,0 +1,74 @@
+package ab.dash.ast;
+
+import org.antlr.runtime.TokenStream;
+
+/** State owned by a single compilation: the LLVM IR id counter used by
+ *  DashAST, the symbol id counter used by SymbolTable and the token stream
+ *  produced by the lexer/parser pass.
+ *
+ *  A context is bound to the compiling thread with enter() and released with
+ *  exit(), so compilations running on different threads never share ids.
+ *  Code running outside of any context falls back to the shared counters.
+ */
+public class CompilationContext {
+	private static final ThreadLocal<CompilationContext> current =
+			new ThreadLocal<CompilationContext>();
+
+	static {
+		// Loading SymbolTable creates the built in type symbols. Force it
+		// before any context can be bound so they always take their ids from
+		// the shared counter, and every compilation numbers its own symbols
+		// from the same starting point.
+		SymbolTable.getID();
+	}
+
+	private int llvmIdCounter;
+	private int symbolIdCounter;
+	private TokenStream tokens;
+	private CompilationContext previous;
+
+	public CompilationContext() {
+		this.llvmIdCounter = 0;
+		this.symbolIdCounter = 0;
+	}
+
+	/** Context bound to the calling thread, null if there is none */
+	public static CompilationContext current() {
+		return current.get();
+	}
+
+	/** Bind this context to the calling thread */
+	public CompilationContext enter() {
+		this.previous = current.get();
+		current.set(this);
+		return this;
+	}
+
+	/** Restore whatever context was bound before enter() */
+	public void exit() {
+		if (previous != null) {
+			current.set(previous);
+		} else {
+			current.remove();
+		}
+		previous = null;
+	}
+
+	public int nextLLVMId() {
+		llvmIdCounter++;
+		return llvmIdCounter;
+	}
+
+	public int nextSymbolId() {
+		symbolIdCounter++;
+		return symbolIdCounter;
+	}
+
+	public TokenStream getTokens() {
+		return tokens;
+	}
+
+	public void setTokens(TokenStream tokens) {
+		this.tokens = tokens;
+	}
+}
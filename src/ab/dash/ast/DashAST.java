@@ -26,6 +26,10 @@ public class DashAST extends CommonTree {
     }
     
     public static int getUniqueId() {
+       CompilationContext context = CompilationContext.current();
+       if (context != null)
+           return context.nextLLVMId();
+       
        LLVMIR_ID_COUNTER++;
        return LLVMIR_ID_COUNTER;
     }
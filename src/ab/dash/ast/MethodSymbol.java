@@ -14,6 +14,8 @@ import java.util.Map;
 
 public class MethodSymbol extends ScopedSymbol {
 	Map<String, Symbol> orderedArgs = new LinkedHashMap<String, Symbol>();
+	// the generated function keeps its results in a table of the runtime
+	public boolean memoize;
 
 	public MethodSymbol(String name, Type retType, Scope parent) {
         super(name, retType, parent);
@@ -15,6 +15,7 @@ import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.TokenStream;
 
 import ab.dash.DashLexer;
+import ab.dash.StreamingTokenStream;
 
 public class SymbolTable {
 	private static int ID_COUNTER = 0;
@@ -208,6 +209,10 @@ public class SymbolTable {
     
 
     public static int getID() {
+    	CompilationContext context = CompilationContext.current();
+    	if (context != null)
+    		return context.nextSymbolId();
+    	
 		ID_COUNTER++;
 		return ID_COUNTER;
 	}
@@ -1522,6 +1527,10 @@ public class SymbolTable {
     public String text(DashAST t) {
         String ts = "";
         if ( t.evalType!=null ) ts = ":<"+t.evalType+">";
+        if ( tokens instanceof StreamingTokenStream ) {
+            // most tokens are gone, the tree holds the ones the parser changed
+            return ((StreamingTokenStream)tokens).toString(t)+ts;
+        }
         return tokens.toString(t.getTokenStartIndex(),
                                t.getTokenStopIndex())+ts;
     }
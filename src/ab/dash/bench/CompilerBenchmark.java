@@ -0,0 +1,137 @@
+/** Benchmarks the compiler front end and LLVM IR generation.
+ *
+ *  Workloads are the TestPrograms corpus and synthetic programs of the
+ *  requested sizes. Every iteration compiles the whole workload, recording
+ *  the time spent in each pass (lexer/parser, Def, Types, TuplePromotion,
+ *  Optimization, LLVMIRGenerator, ...) with a PassTimer. After the warmup
+ *  iterations have been discarded, the per pass mean, standard deviation
+ *  and minimum over the measured iterations are printed for each workload.
+ *
+ *  With -compare-fusion every workload is also compiled with each pass
+ *  walking the tree on its own, as the compiler did before the PassManager
+ *  fused traversals, and the speedup of the fused passes is printed.
+ *
+ *  usage: CompilerBenchmark [-warmup N] [-iterations N] [-lines 10000,100000]
+ *                           [-compare-fusion] [<program dir>] **/
+package ab.dash.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.stringtemplate.StringTemplateGroup;
+
+import ab.dash.BatchCompiler;
+import ab.dash.CompileOutput;
+import ab.dash.LLVMTemplates;
+import ab.dash.PassTimer;
+import ab.dash.Runner;
+
+public class CompilerBenchmark {
+	private int warmup = 3;
+	private int iterations = 10;
+	private boolean compareFusion = false;
+	private StringTemplateGroup stg = LLVMTemplates.get();
+
+	// compiles every program once, adding the time spent in each pass to
+	// measurements unless it is null
+	private void compileAll(List<File> programs, Measurements measurements, boolean fusePasses) throws Exception {
+		Map<String, Long> passes = new LinkedHashMap<String, Long>();
+		long start = System.nanoTime();
+
+		for (File program : programs) {
+			PassTimer timer = new PassTimer();
+			CompileOutput output = Runner.llvmCompile(new String[] {program.getPath()}, stg, timer, fusePasses);
+			if (output == null) {
+				continue;
+			}
+
+			for (PassTimer.Pass pass : timer.getPasses()) {
+				Long sum = passes.get(pass.name);
+				passes.put(pass.name, (sum == null ? 0 : sum) + pass.wallNanos);
+			}
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		if (measurements != null) {
+			for (Map.Entry<String, Long> pass : passes.entrySet()) {
+				measurements.add(pass.getKey(), pass.getValue());
+			}
+			measurements.add("total", elapsed);
+		}
+	}
+
+	private void run(String workload, List<File> programs) throws Exception {
+		String header = workload + " (" + programs.size() + " programs, " + iterations + " iterations)";
+
+		for (int i = 0; i < warmup; i++) {
+			compileAll(programs, null, true);
+			if (compareFusion) {
+				compileAll(programs, null, false);
+			}
+		}
+
+		// alternate between both so neither gets a warmer JIT or heap
+		Measurements fused = new Measurements();
+		Measurements separate = new Measurements();
+		for (int i = 0; i < iterations; i++) {
+			compileAll(programs, fused, true);
+			if (compareFusion) {
+				compileAll(programs, separate, false);
+			}
+		}
+
+		if (!compareFusion) {
+			System.out.println(header);
+			System.out.println(fused.toTable());
+			return;
+		}
+
+		System.out.println(header + ", separate passes");
+		System.out.println(separate.toTable());
+		System.out.println(header + ", fused passes");
+		System.out.println(fused.toTable());
+		System.out.println(String.format("%-24s %12.2fx%n", "fused speedup", separate.mean("total") / fused.mean("total")));
+	}
+
+	public static void main(String[] args) throws Exception {
+		CompilerBenchmark benchmark = new CompilerBenchmark();
+		String corpus = "TestPrograms";
+		List<Integer> sizes = new ArrayList<Integer>();
+		sizes.add(10000);
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-warmup") && i + 1 < args.length) {
+				benchmark.warmup = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-iterations") && i + 1 < args.length) {
+				benchmark.iterations = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-compare-fusion")) {
+				benchmark.compareFusion = true;
+			} else if (args[i].equals("-lines") && i + 1 < args.length) {
+				sizes.clear();
+				for (String size : args[++i].split(",")) {
+					if (size.length() > 0) {
+						sizes.add(Integer.parseInt(size.trim()));
+					}
+				}
+			} else if (!args[i].startsWith("-")) {
+				corpus = args[i];
+			} else {
+				System.err.println("usage: CompilerBenchmark [-warmup N] [-iterations N] "
+						+ "[-lines 10000,100000] [-compare-fusion] [<program dir>]");
+				System.exit(1);
+			}
+		}
+
+		benchmark.run(corpus, BatchCompiler.findPrograms(new File(corpus)));
+
+		for (int lines : sizes) {
+			List<File> programs = new ArrayList<File>();
+			programs.add(SyntheticProgram.write(lines));
+			benchmark.run("synthetic " + lines + " lines", programs);
+		}
+	}
+}
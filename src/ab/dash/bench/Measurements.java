@@ -0,0 +1,68 @@
+/** Named series of timing samples, one sample per measured iteration,
+ *  reported as mean, standard deviation and minimum in milliseconds. **/
+package ab.dash.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Measurements {
+	private Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+
+	public void add(String name, long nanos) {
+		List<Long> series = samples.get(name);
+		if (series == null) {
+			series = new ArrayList<Long>();
+			samples.put(name, series);
+		}
+		series.add(nanos);
+	}
+
+	public List<String> getNames() {
+		return new ArrayList<String>(samples.keySet());
+	}
+
+	public double mean(String name) {
+		double sum = 0;
+		for (long sample : samples.get(name)) {
+			sum += sample;
+		}
+		return sum / samples.get(name).size();
+	}
+
+	public double stddev(String name) {
+		List<Long> series = samples.get(name);
+		if (series.size() < 2) {
+			return 0;
+		}
+
+		double mean = mean(name);
+		double sum = 0;
+		for (long sample : series) {
+			sum += (sample - mean) * (sample - mean);
+		}
+		return Math.sqrt(sum / (series.size() - 1));
+	}
+
+	public long min(String name) {
+		long min = Long.MAX_VALUE;
+		for (long sample : samples.get(name)) {
+			min = Math.min(min, sample);
+		}
+		return min;
+	}
+
+	/** One line per series, in the order they were first added */
+	public String toTable() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(String.format("%-24s %12s %12s %12s%n", "", "mean ms", "stddev ms", "min ms"));
+		for (String name : samples.keySet()) {
+			sb.append(String.format("%-24s %12.3f %12.3f %12.3f%n", name, mean(name) / 1e6, stddev(name) / 1e6,
+					min(name) / 1e6));
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,96 @@
+/** Benchmarks the lexer and parser on large synthetic programs.
+ *
+ *  Every size is parsed a number of times after some warmup iterations.
+ *  Besides the timings, the time and bytes allocated per source line are
+ *  printed: with a parser that does not backtrack both should stay flat as
+ *  the programs grow, anything growing faster than the input shows up here.
+ *
+ *  usage: ParserBenchmark [-warmup N] [-iterations N] [-lines 10000,100000] **/
+package ab.dash.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+
+import ab.dash.DashLexer;
+import ab.dash.DashParser;
+import ab.dash.PassTimer;
+import ab.dash.ast.DashAST;
+
+public class ParserBenchmark {
+	private int warmup = 3;
+	private int iterations = 10;
+
+	/** Lexes and parses a program, returns the number of syntax errors */
+	public static int parse(String source) throws Exception {
+		DashLexer lexer = new DashLexer(new ANTLRStringStream(source));
+		DashParser parser = new DashParser(new CommonTokenStream(lexer));
+		parser.setTreeAdaptor(DashAST.dashAdaptor);
+		parser.program();
+
+		return lexer.getErrorCount() + parser.getErrorCount() + parser.getAntlrErrors().length();
+	}
+
+	private void run(int lines) throws Exception {
+		String source = SyntheticProgram.generate(lines);
+
+		for (int i = 0; i < warmup; i++) {
+			parse(source);
+		}
+
+		Measurements measurements = new Measurements();
+		long allocated = 0;
+		for (int i = 0; i < iterations; i++) {
+			PassTimer timer = new PassTimer();
+			timer.phase("LexerParser");
+			if (parse(source) > 0) {
+				throw new IllegalStateException("synthetic program of " + lines + " lines does not parse");
+			}
+			timer.finish();
+
+			PassTimer.Pass pass = timer.getPasses().get(0);
+			measurements.add("LexerParser", pass.wallNanos);
+			allocated = pass.allocatedBytes;
+		}
+
+		double mean = measurements.mean("LexerParser");
+		System.out.println("synthetic " + lines + " lines (" + iterations + " iterations)");
+		System.out.print(measurements.toTable());
+		System.out.println(String.format("%-24s %12.3f", "us per line", mean / 1e3 / lines));
+		if (allocated >= 0) {
+			System.out.println(String.format("%-24s %12.1f", "bytes per line", (double) allocated / lines));
+		}
+		System.out.println();
+	}
+
+	public static void main(String[] args) throws Exception {
+		ParserBenchmark benchmark = new ParserBenchmark();
+		List<Integer> sizes = new ArrayList<Integer>();
+		sizes.add(10000);
+		sizes.add(100000);
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-warmup") && i + 1 < args.length) {
+				benchmark.warmup = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-iterations") && i + 1 < args.length) {
+				benchmark.iterations = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-lines") && i + 1 < args.length) {
+				sizes.clear();
+				for (String size : args[++i].split(",")) {
+					if (size.length() > 0) {
+						sizes.add(Integer.parseInt(size.trim()));
+					}
+				}
+			} else {
+				System.err.println("usage: ParserBenchmark [-warmup N] [-iterations N] [-lines 10000,100000]");
+				System.exit(1);
+			}
+		}
+
+		for (int lines : sizes) {
+			benchmark.run(lines);
+		}
+	}
+}
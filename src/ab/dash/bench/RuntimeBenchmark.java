@@ -0,0 +1,264 @@
+/** Benchmarks the code the compiler generates together with the Dash
+ *  runtime (vectors, matrices, intervals, gc and input parsing).
+ *
+ *  Every program found below the benchmark directory is compiled and
+ *  linked once, then run a number of times, fed from an input.in next to
+ *  it if there is one. For each program the best wall time, the peak
+ *  resident set size and the number of runtime allocations are recorded;
+ *  the latter two come from the runtime itself (DASH_RUNTIME_STATS).
+ *
+ *  With -record the results are stored as the baseline. Otherwise they are
+ *  compared against the stored baseline, and programs that got slower or
+ *  use more memory than the threshold allows, or allocate more often, are
+ *  flagged and make the run fail.
+ *
+ *  usage: RuntimeBenchmark [-runs N] [-threshold <percent>] [-baseline <file>]
+ *                          [-record] [<benchmark dir>] **/
+package ab.dash.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ab.dash.BatchCompiler;
+import ab.dash.CompileOutput;
+import ab.dash.Runner;
+import ab.dash.Toolchain;
+
+public class RuntimeBenchmark {
+	public static class Result {
+		public long wallNanos = Long.MAX_VALUE;
+		public long peakRssKb;
+		public long allocations;
+
+		public String toString() {
+			return String.format("%.3f %d %d", wallNanos / 1e6, peakRssKb, allocations);
+		}
+
+		static Result parse(String line) {
+			String[] parts = line.trim().split("\\s+");
+			Result result = new Result();
+			result.wallNanos = (long) (Double.parseDouble(parts[0]) * 1e6);
+			result.peakRssKb = Long.parseLong(parts[1]);
+			result.allocations = Long.parseLong(parts[2]);
+			return result;
+		}
+	}
+
+	private int runs = 5;
+	private double threshold = 10;
+	private Toolchain toolchain = new Toolchain();
+
+	// reads the "name value" lines written by the runtime
+	private static Map<String, Long> readStats(File file) throws IOException {
+		Map<String, Long> stats = new HashMap<String, Long>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length == 2) {
+					stats.put(parts[0], Long.parseLong(parts[1]));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return stats;
+	}
+
+	/** Builds and runs one program, null if it does not build or run */
+	public Result measure(File program) throws IOException, InterruptedException {
+		CompileOutput output = Runner.llvmCompile(new String[] {program.getPath()});
+		if (output == null) {
+			System.err.println(program.getPath() + ": compilation failed");
+			return null;
+		}
+
+		String file = "LLVMIROutput/" + program.getPath().replaceFirst("^/+", "");
+		File executable = new File(file.substring(0, file.lastIndexOf('.')));
+		File input = new File(program.getParentFile(), "input.in");
+		File statsFile = new File(file + ".stats");
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+
+		if (toolchain.build(output.llvm, new File(file + ".o"), executable, errors) != 0) {
+			System.err.println(program.getPath() + ": " + errors.toString().trim());
+			return null;
+		}
+
+		Map<String, String> environment = new HashMap<String, String>();
+		environment.put("DASH_RUNTIME_STATS", statsFile.getAbsolutePath());
+
+		Result result = new Result();
+		// the first run only warms up the file cache
+		for (int i = 0; i <= runs; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long start = System.nanoTime();
+			int exitCode = toolchain.execute(executable, input.exists() ? input : null, environment, out, errors);
+			long elapsed = System.nanoTime() - start;
+
+			if (exitCode != 0) {
+				System.err.println(program.getPath() + ": exited with " + exitCode + " " + errors.toString().trim());
+				return null;
+			}
+
+			if (i > 0) {
+				Map<String, Long> stats = readStats(statsFile);
+				result.wallNanos = Math.min(result.wallNanos, elapsed);
+				result.peakRssKb = Math.max(result.peakRssKb, stats.get("peak_rss_kb"));
+				result.allocations = stats.get("allocations");
+			}
+		}
+
+		return result;
+	}
+
+	public Map<String, Result> measureAll(List<File> programs) throws IOException, InterruptedException {
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+
+		for (File program : programs) {
+			Result result = measure(program);
+			if (result != null) {
+				results.put(program.getPath(), result);
+			}
+		}
+
+		return results;
+	}
+
+	public static Map<String, Result> readBaseline(File file) throws IOException {
+		Map<String, Result> baseline = new LinkedHashMap<String, Result>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+
+				int split = line.indexOf(' ');
+				baseline.put(line.substring(0, split), Result.parse(line.substring(split + 1)));
+			}
+		} finally {
+			reader.close();
+		}
+
+		return baseline;
+	}
+
+	public static void writeBaseline(File file, Map<String, Result> results) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("# program wall_ms peak_rss_kb allocations\n");
+		for (Map.Entry<String, Result> result : results.entrySet()) {
+			sb.append(result.getKey()).append(' ').append(result.getValue()).append('\n');
+		}
+
+		Runner.createFile(file.getPath(), sb.toString());
+	}
+
+	private boolean exceeds(long value, long base) {
+		return value > base * (1 + threshold / 100);
+	}
+
+	/** Reasons a result is worse than its baseline, empty if it is not */
+	public String compare(Result result, Result base) {
+		StringBuilder problems = new StringBuilder();
+
+		if (exceeds(result.wallNanos, base.wallNanos)) {
+			problems.append(" SLOWER");
+		}
+		if (exceeds(result.peakRssKb, base.peakRssKb)) {
+			problems.append(" MORE-MEMORY");
+		}
+		if (result.allocations > base.allocations) {
+			problems.append(" MORE-ALLOCATIONS");
+		}
+
+		return problems.toString().trim();
+	}
+
+	private static String percent(long value, long base) {
+		return base == 0 ? "" : String.format("%+.1f%%", 100.0 * (value - base) / base);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		RuntimeBenchmark benchmark = new RuntimeBenchmark();
+		String dir = "Benchmarks";
+		File baselineFile = null;
+		boolean record = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-runs") && i + 1 < args.length) {
+				benchmark.runs = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-threshold") && i + 1 < args.length) {
+				benchmark.threshold = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-baseline") && i + 1 < args.length) {
+				baselineFile = new File(args[++i]);
+			} else if (args[i].equals("-record")) {
+				record = true;
+			} else if (!args[i].startsWith("-")) {
+				dir = args[i];
+			} else {
+				System.err.println("usage: RuntimeBenchmark [-runs N] [-threshold <percent>] "
+						+ "[-baseline <file>] [-record] [<benchmark dir>]");
+				System.exit(1);
+			}
+		}
+
+		if (baselineFile == null) {
+			baselineFile = new File(dir, "baseline.txt");
+		}
+
+		Map<String, Result> results = benchmark.measureAll(BatchCompiler.findPrograms(new File(dir)));
+
+		if (record) {
+			writeBaseline(baselineFile, results);
+			System.out.println("Recorded baseline of " + results.size() + " programs in " + baselineFile);
+		}
+
+		Map<String, Result> baseline = !record && baselineFile.exists()
+				? readBaseline(baselineFile) : new HashMap<String, Result>();
+		int regressions = 0;
+
+		System.out.println(String.format("%-50s %10s %8s %12s %8s %12s %8s", "program", "wall ms", "",
+				"peak rss kb", "", "allocations", ""));
+		for (Map.Entry<String, Result> entry : results.entrySet()) {
+			Result result = entry.getValue();
+			Result base = baseline.get(entry.getKey());
+			String problems = base == null ? "" : benchmark.compare(result, base);
+
+			System.out.println(String.format("%-50s %10.3f %8s %12d %8s %12d %8s %s", entry.getKey(),
+					result.wallNanos / 1e6, base == null ? "" : percent(result.wallNanos, base.wallNanos),
+					result.peakRssKb, base == null ? "" : percent(result.peakRssKb, base.peakRssKb),
+					result.allocations, base == null ? "" : percent(result.allocations, base.allocations),
+					problems));
+
+			if (problems.length() > 0) {
+				regressions++;
+			}
+		}
+
+		for (String program : baseline.keySet()) {
+			if (!results.containsKey(program)) {
+				System.out.println(String.format("%-50s %s", program, "MISSING"));
+				regressions++;
+			}
+		}
+
+		if (regressions > 0) {
+			System.out.println(regressions + " of " + results.size() + " programs regressed against " + baselineFile);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/** Generates large, valid Dash programs for benchmarking the compiler.
+ *  The program is a chain of functions, each calling the previous one,
+ *  using declarations, arithmetic, if/else and loops, so every front end
+ *  pass has real work to do on it. **/
+package ab.dash.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import ab.dash.Runner;
+
+public class SyntheticProgram {
+	// number of lines generate() emits per function
+	private static final int LINES_PER_FUNCTION = 15;
+
+	private static void function(StringBuilder sb, int k) {
+		sb.append("function f").append(k).append("(integer a, integer b) returns integer {\n");
+		sb.append("\tinteger x = a * ").append(k % 7 + 1).append(" + b;\n");
+		sb.append("\treal r = 1.5 * x;\n");
+		sb.append("\tboolean flag = x > ").append(k % 13).append(" and r < 100.0;\n");
+		sb.append("\tif (flag) {\n");
+		sb.append("\t\tx = x - 1;\n");
+		sb.append("\t} else {\n");
+		sb.append("\t\tx = x + 2;\n");
+		sb.append("\t}\n");
+		sb.append("\tloop while (x < 100) {\n");
+		sb.append("\t\tx = x * 2;\n");
+		sb.append("\t}\n");
+		if (k > 1) {
+			sb.append("\treturn x + f").append(k - 1).append("(a, b) % 5;\n");
+		} else {
+			sb.append("\treturn x;\n");
+		}
+		sb.append("}\n\n");
+	}
+
+	/** Source of a program roughly the given number of lines long */
+	public static String generate(int lines) {
+		int functions = Math.max(1, lines / LINES_PER_FUNCTION);
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("const out = std_output();\n\n");
+		for (int k = 1; k <= functions; k++) {
+			function(sb, k);
+		}
+		sb.append("procedure main() returns integer {\n");
+		sb.append("\tf").append(functions).append("(1, 2) -> out;\n");
+		sb.append("\treturn 0;\n");
+		sb.append("}\n");
+
+		return sb.toString();
+	}
+
+	/** Writes a generated program to a temporary file, deleted on exit */
+	public static File write(int lines) throws IOException {
+		File file = File.createTempFile("synthetic" + lines + "-", ".ds");
+		file.deleteOnExit();
+		Runner.createFile(file.getPath(), generate(lines));
+		return file;
+	}
+}
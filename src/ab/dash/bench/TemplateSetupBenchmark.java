@@ -0,0 +1,56 @@
+/** Measures what parsing the LLVM string templates costs a compilation.
+ *  Compiles the same program repeatedly, once loading a fresh template
+ *  group for every compile and once reusing the shared group, and prints
+ *  the average time per compile for both.
+ *
+ *  usage: TemplateSetupBenchmark [<program.ds>] [<iterations>] **/
+package ab.dash.bench;
+
+import org.antlr.stringtemplate.StringTemplateGroup;
+
+import ab.dash.LLVMTemplates;
+import ab.dash.Runner;
+
+public class TemplateSetupBenchmark {
+	private static final int WARMUP = 20;
+
+	private static long run(String program, int iterations, boolean shared) throws Exception {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			StringTemplateGroup stg = shared ? LLVMTemplates.get() : LLVMTemplates.load();
+			Runner.llvmCompile(new String[] {program}, stg);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, long nanos, int iterations) {
+		System.out.println(String.format("%-24s %10.3f ms/iteration", name, nanos / 1e6 / iterations));
+	}
+
+	public static void main(String[] args) throws Exception {
+		String program = args.length > 0 ? args[0] : "TestPrograms/101TestMatrixDeclaration/testMatrixDeclaration.ds";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		long load = 0;
+		for (int i = 0; i < WARMUP + iterations; i++) {
+			long start = System.nanoTime();
+			LLVMTemplates.load();
+			if (i >= WARMUP) {
+				load += System.nanoTime() - start;
+			}
+		}
+
+		run(program, WARMUP, false);
+		run(program, WARMUP, true);
+
+		long fresh = run(program, iterations, false);
+		long shared = run(program, iterations, true);
+
+		System.out.println(program + ", " + iterations + " iterations");
+		report("template load only", load, iterations);
+		report("compile, fresh templates", fresh, iterations);
+		report("compile, shared templates", shared, iterations);
+	}
+}
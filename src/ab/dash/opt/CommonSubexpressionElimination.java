@@ -0,0 +1,477 @@
+package ab.dash.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.runtime.CommonToken;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.MethodSymbol;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.VariableSymbol;
+
+/** Computes the expressions repeated in the statements of a block once.
+ *
+ *  An expression is available from the statement computing it until a
+ *  statement may change one of the variables it reads: by assigning,
+ *  declaring or reading into it, or by passing it to a procedure. An
+ *  expression found again while available is stored in a new variable,
+ *  declared before the statement first computing it, and every occurrence
+ *  is replaced by a use of that variable.
+ *
+ *  Only scalar expressions without effects are reused, those calling
+ *  nothing but functions and the built in length, rows, columns and
+ *  reverse. They must cost more than the variable: at least two operations,
+ *  or an index or call into the runtime. Larger expressions are reused
+ *  first. **/
+public class CommonSubexpressionElimination {
+	DefUseIndex index;
+	boolean debug_mode;
+
+	// occurrences replaced by the current run
+	private int changes;
+
+	// an expression computed by the statements of a block
+	private static class Available {
+		List<DashAST> occurrences = new ArrayList<DashAST>();
+		Set<VariableSymbol> reads = new HashSet<VariableSymbol>();
+		int size;
+	}
+
+	public CommonSubexpressionElimination(DefUseIndex index, boolean debug_mode) {
+		this.index = index;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Reuses the repeated expressions in tree, returns the number of
+	 *  occurrences replaced */
+	public int optimize(DashAST tree) {
+		changes = 0;
+		walk(tree);
+		return changes;
+	}
+
+	private void walk(DashAST t) {
+		for (int i = 0; i < t.getChildCount(); i++)
+			walk((DashAST) t.getChild(i));
+
+		if (t.getToken().getType() == DashLexer.BLOCK && t.scope != null) {
+			block(t);
+		}
+	}
+
+	private void block(DashAST block) {
+		Map<String, Available> available = new HashMap<String, Available>();
+		List<Available> found = new ArrayList<Available>();
+
+		for (int i = 0; i < block.getChildCount(); i++) {
+			DashAST statement = (DashAST) block.getChild(i);
+
+			// a procedure may change what it is passed before the rest runs
+			Set<VariableSymbol> passed = new HashSet<VariableSymbol>();
+			passed(statement, passed);
+			for (DashAST expr : expressions(statement))
+				collect(expr, passed, available, found);
+
+			Set<VariableSymbol> written = new HashSet<VariableSymbol>();
+			written(statement, written);
+			Iterator<Available> it = available.values().iterator();
+			while (it.hasNext()) {
+				if (!Collections.disjoint(it.next().reads, written)) {
+					it.remove();
+				}
+			}
+		}
+
+		Collections.sort(found, new Comparator<Available>() {
+			public int compare(Available a, Available b) {
+				return b.size - a.size;
+			}
+		});
+
+		for (Available expr : found)
+			reuse(block, expr);
+	}
+
+	// the expressions a statement computes once, before it changes anything
+	private static List<DashAST> expressions(DashAST statement) {
+		List<DashAST> exprs = new ArrayList<DashAST>();
+
+		switch (statement.getToken().getType()) {
+		case DashLexer.VAR_DECL:
+			if (DefUseIndex.initializer(statement) != null) {
+				exprs.add(DefUseIndex.initializer(statement));
+			}
+			break;
+
+		case DashLexer.ASSIGN: {
+			exprs.add((DashAST) statement.getChild(1));
+
+			// the indices of the target, not the target itself
+			DashAST target = (DashAST) statement.getChild(0).getChild(0);
+			int type = target.getToken().getType();
+			if (type == DashLexer.VECTOR_INDEX || type == DashLexer.MATRIX_INDEX) {
+				for (int i = 1; i < target.getChildCount(); i++)
+					exprs.add((DashAST) target.getChild(i));
+			}
+			break;
+		}
+
+		case DashLexer.UNPACK:
+			exprs.add((DashAST) statement.getChild(statement.getChildCount() - 1));
+			break;
+
+		case DashLexer.If:
+			exprs.add((DashAST) statement.getChild(0));
+			break;
+
+		case DashLexer.PRINT:
+		case DashLexer.Return:
+		case DashLexer.EXPR:
+			for (int i = 0; i < statement.getChildCount(); i++)
+				exprs.add((DashAST) statement.getChild(i));
+			break;
+		}
+
+		return exprs;
+	}
+
+	// records the reusable expressions in t, returns whether t has no effects
+	private boolean collect(DashAST t, Set<VariableSymbol> passed, Map<String, Available> available,
+			List<Available> found) {
+		// the expressions in it may read the variables it declares
+		int type = t.getToken().getType();
+		if (type == DashLexer.GENERATOR || type == DashLexer.FILTER) {
+			return false;
+		}
+
+		boolean pure = isPure(t);
+		for (int i = 0; i < t.getChildCount(); i++)
+			pure &= collect((DashAST) t.getChild(i), passed, available, found);
+
+		if (!pure || !isReusable(t) || cost(t) < 2) {
+			return pure;
+		}
+
+		Set<VariableSymbol> reads = new HashSet<VariableSymbol>();
+		reads(t, reads);
+		if (!Collections.disjoint(reads, passed)) {
+			return pure;
+		}
+
+		String key = key(t);
+		Available expr = available.get(key);
+		if (expr == null) {
+			expr = new Available();
+			expr.reads = reads;
+			expr.size = size(t);
+			available.put(key, expr);
+			found.add(expr);
+		}
+		expr.occurrences.add(t);
+		return pure;
+	}
+
+	// whether t computes its value without effects
+	static boolean isPure(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+		case DashLexer.ELIST:
+		case DashLexer.ID:
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+		case DashLexer.CHARACTER:
+		case DashLexer.True:
+		case DashLexer.False:
+		case DashLexer.TUPLE_LIST:
+		case DashLexer.VECTOR_LIST:
+		case DashLexer.RANGE:
+		case DashLexer.By:
+		case DashLexer.DOT:
+		case DashLexer.TYPECAST:
+		case DashLexer.VECTOR_INDEX:
+		case DashLexer.MATRIX_INDEX:
+		case DashLexer.UNARY_MINUS:
+		case DashLexer.Not:
+		case DashLexer.And:
+		case DashLexer.Or:
+		case DashLexer.Xor:
+		case DashLexer.EQUALITY:
+		case DashLexer.INEQUALITY:
+		case DashLexer.LESS:
+		case DashLexer.LESS_EQUAL:
+		case DashLexer.GREATER:
+		case DashLexer.GREATER_EQUAL:
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR:
+		case DashLexer.POWER:
+		case DashLexer.CONCAT:
+		case DashLexer.DOTPRODUCT:
+			return true;
+		case DashLexer.CALL:
+			return isFunctionCall(t);
+		}
+		return false;
+	}
+
+	// whether call calls a function, which cannot have effects
+	static boolean isFunctionCall(DashAST call) {
+		DashAST id = (DashAST) call.getChild(0);
+		if (!(id.symbol instanceof MethodSymbol)) {
+			return false;
+		}
+
+		MethodSymbol method = (MethodSymbol) id.symbol;
+		if (method.def == null) {
+			String name = method.getShortName();
+			return name.equals("length") || name.equals("rows") || name.equals("columns")
+					|| name.equals("reverse");
+		}
+		DashAST decl = (DashAST) method.def.getParent();
+		return decl != null && decl.getToken().getType() == DashLexer.FUNCTION_DECL;
+	}
+
+	private static boolean isScalar(DashAST t) {
+		return t.promoteToType == null && Effects.isScalar(t.evalType);
+	}
+
+	// whether t is an argument of a procedure, which gets the variable
+	// itself and may change it
+	static boolean isPassedByReference(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
+		DashAST args = (DashAST) parent.getParent();
+		return parent.getToken().getType() == DashLexer.EXPR && args != null
+				&& args.getToken().getType() == DashLexer.ELIST
+				&& !isFunctionCall((DashAST) args.getParent());
+	}
+
+	// whether t is an operation whose value may be kept in a variable
+	private static boolean isReusable(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+		case DashLexer.ELIST:
+		case DashLexer.ID:
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+		case DashLexer.CHARACTER:
+		case DashLexer.True:
+		case DashLexer.False:
+		case DashLexer.DOT:
+			return false;
+		}
+
+		return !isPassedByReference(t) && isScalar(t);
+	}
+
+	// operations in t, calls into the runtime counting twice
+	static int cost(DashAST t) {
+		int cost = 0;
+
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+		case DashLexer.ELIST:
+		case DashLexer.ID:
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+		case DashLexer.CHARACTER:
+		case DashLexer.True:
+		case DashLexer.False:
+			break;
+		case DashLexer.CALL:
+		case DashLexer.VECTOR_INDEX:
+		case DashLexer.MATRIX_INDEX:
+			cost = 2;
+			break;
+		default:
+			// operations on vectors and matrices call into the runtime
+			cost = t.evalType == null || Effects.isScalar(t.evalType) ? 1 : 2;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			cost += cost((DashAST) t.getChild(i));
+		return cost;
+	}
+
+	private static int size(DashAST t) {
+		int size = 1;
+		for (int i = 0; i < t.getChildCount(); i++)
+			size += size((DashAST) t.getChild(i));
+		return size;
+	}
+
+	// equal for the expressions computing the same value from the same variables
+	static String key(DashAST t) {
+		StringBuilder key = new StringBuilder();
+		key(t, key);
+		return key.toString();
+	}
+
+	private static void key(DashAST t, StringBuilder key) {
+		key.append('(').append(t.getToken().getType()).append(' ').append(t.getText());
+		if (t.symbol != null) {
+			key.append('#').append(t.symbol.id);
+		}
+		if (t.evalType != null) {
+			key.append('<').append(t.evalType.getName());
+			if (t.promoteToType != null) {
+				key.append(':').append(t.promoteToType.getName());
+			}
+			key.append('>');
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			key((DashAST) t.getChild(i), key);
+		key.append(')');
+	}
+
+	static void reads(DashAST t, Set<VariableSymbol> reads) {
+		if (t.getToken().getType() == DashLexer.ID && t.symbol instanceof VariableSymbol) {
+			reads.add((VariableSymbol) t.symbol);
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			reads((DashAST) t.getChild(i), reads);
+	}
+
+	// variable an assignment target or argument belongs to, null if none
+	private static VariableSymbol base(DashAST t) {
+		while (t != null) {
+			switch (t.getToken().getType()) {
+			case DashLexer.ID:
+				return t.symbol instanceof VariableSymbol ? (VariableSymbol) t.symbol : null;
+			case DashLexer.EXPR:
+			case DashLexer.VECTOR_INDEX:
+			case DashLexer.MATRIX_INDEX:
+			case DashLexer.DOT:
+				t = (DashAST) t.getChild(0);
+				break;
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+
+	// collects the variables passed to the procedures t calls
+	private static void passed(DashAST t, Set<VariableSymbol> passed) {
+		if (t.getToken().getType() == DashLexer.CALL && !isFunctionCall(t)) {
+			reads(t, passed);
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			passed((DashAST) t.getChild(i), passed);
+	}
+
+	// collects the variables the statements in t may change
+	static void written(DashAST t, Set<VariableSymbol> written) {
+		switch (t.getToken().getType()) {
+		case DashLexer.VAR_DECL:
+			written.add(DefUseIndex.declared(t));
+			break;
+		case DashLexer.ASSIGN:
+			written.add(base((DashAST) t.getChild(0)));
+			break;
+		case DashLexer.INPUT:
+			for (int i = 0; i < t.getChildCount(); i++)
+				written.add(base((DashAST) t.getChild(i)));
+			break;
+		case DashLexer.UNPACK:
+			for (int i = 0; i < t.getChildCount() - 1; i++)
+				written.add(base((DashAST) t.getChild(i)));
+			break;
+		case DashLexer.CALL:
+			passed(t, written);
+			break;
+		case DashLexer.IN:
+			// the variable of a loop or generator
+			written.add(base((DashAST) t.getChild(0)));
+			break;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			written((DashAST) t.getChild(i), written);
+	}
+
+	// whether t is still part of block
+	private static boolean isIn(DashAST t, DashAST block) {
+		while (t != block) {
+			DashAST parent = (DashAST) t.getParent();
+			if (parent == null || parent.getChild(t.getChildIndex()) != t) {
+				return false;
+			}
+			t = parent;
+		}
+		return true;
+	}
+
+	// keeps expr in a new variable if it is still computed twice
+	private void reuse(DashAST block, Available expr) {
+		List<DashAST> occurrences = new ArrayList<DashAST>();
+		for (DashAST t : expr.occurrences) {
+			if (isIn(t, block)) {
+				occurrences.add(t);
+			}
+		}
+		if (occurrences.size() < 2) {
+			return;
+		}
+
+		DashAST first = occurrences.get(0);
+		DashAST statement = first;
+		while (statement.getParent() != block)
+			statement = (DashAST) statement.getParent();
+
+		VariableSymbol s = new VariableSymbol(null, first.evalType, SymbolTable._const);
+		s.name = "__cse_" + s.id;
+		block.scope.define(s);
+
+		DashAST id = new DashAST(new CommonToken(DashLexer.ID, s.name));
+		id.symbol = s;
+		s.def = id;
+
+		debug("line " + first.getLine() + ": " + first.toStringTree() + " computed "
+				+ occurrences.size() + " times");
+
+		for (DashAST t : occurrences) {
+			DashAST use = new DashAST(new CommonToken(DashLexer.ID, s.name));
+			use.symbol = s;
+			use.evalType = t.evalType;
+			t.getParent().setChild(t.getChildIndex(), use);
+			if (t != first) {
+				index.remove(t);
+			}
+			index.add(use);
+			changes++;
+		}
+
+		DashAST expr_node = new DashAST(new CommonToken(DashLexer.EXPR, "EXPR"));
+		expr_node.evalType = first.evalType;
+		expr_node.addChild(first);
+
+		DashAST decl = new DashAST(new CommonToken(DashLexer.VAR_DECL, "VAR_DECL"));
+		decl.addChild(new DashAST(new CommonToken(DashLexer.INFERRED, "INFERRED")));
+		decl.addChild(id);
+		decl.addChild(expr_node);
+
+		// insert the declaration before the statement
+		int i = statement.getChildIndex();
+		DashAST statements = new DashAST();
+		statements.addChild(decl);
+		statements.addChild(statement);
+		block.replaceChildren(i, i, statements);
+		index.add(decl);
+	}
+}
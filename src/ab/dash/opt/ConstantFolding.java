@@ -1,490 +1,760 @@
 package ab.dash.opt;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.antlr.runtime.CommonToken;
 
 import ab.dash.DashLexer;
 import ab.dash.ast.DashAST;
+import ab.dash.ast.MatrixType;
+import ab.dash.ast.MethodSymbol;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
 import ab.dash.ast.VectorType;
 
+/** Folds the operations on literals to the literal of their result.
+ *
+ *  Results are computed the way the generated code computes them: integers
+ *  as 32 bit integers, reals as single precision floats, and an integer
+ *  operand promoted to real as a real. Whatever is left to fail or would
+ *  not be a finite value at run time is not folded.
+ *
+ *  Intervals with literal bounds and vectors and matrices of literals are
+ *  folded too, as long as the result has at most MAX_ELEMENTS elements.
+ *  The calls of functions on constants are run by the Interpreter. **/
 public class ConstantFolding {
+	// largest vector or matrix literal folding creates
+	public static final int MAX_ELEMENTS = 256;
+
+	// expressions folded by the current run
+	private int changes;
+
+	private Interpreter interpreter = new Interpreter();
+
+	// same as powi in the runtime
+	static int ipow(int base, int exp) {
+		int result = 1;
+		while (exp > 0) {
+			if ((exp & 1) != 0) {
+				result *= base;
+				result %= 1000000007;
+			}
+			base *= base;
+			base %= 1000000007;
+			exp >>= 1;
+		}
+
+		return result;
+	}
 
-	private int ipow(int base, int exp) {
-	    int result = 1;
-    	    while (exp != 0)
-    	    {
-    	    	int bit = exp & 1;
-    	        if (bit != 0)
-    	            result *= base;
-    	        exp >>= 1;
-    	        base *= base;
-    	    }
-    	
-    	    return result;
-	}
-	
-	public void optimize(DashAST tree) {
+	/** Folds the constant expressions of tree, returns how many were folded */
+	public int optimize(DashAST tree) {
+		changes = 0;
 		exec(tree);
+		return changes;
 	}
-	
+
 	protected void exec(DashAST t) {
 		for (int i = 0; i < t.getChildCount(); i++)
 			exec((DashAST) t.getChild(i));
-		
+
+		fold(t);
+	}
+
+	private static boolean isInteger(DashAST t) {
+		return t.getToken().getType() == DashLexer.INTEGER;
+	}
+
+	private static boolean isNumber(DashAST t) {
+		int type = t.getToken().getType();
+		return type == DashLexer.INTEGER || type == DashLexer.REAL;
+	}
+
+	private static boolean isBoolean(DashAST t) {
+		int type = t.getToken().getType();
+		return type == DashLexer.True || type == DashLexer.False;
+	}
+
+	private static boolean isCharacter(DashAST t) {
+		return t.getToken().getType() == DashLexer.CHARACTER && charValue(t) >= 0;
+	}
+
+	private static boolean isPromotedToReal(DashAST t) {
+		return t.promoteToType != null && t.promoteToType.getTypeIndex() == SymbolTable.tREAL;
+	}
+
+	// whether an operation on a and b is computed on reals
+	private static boolean isReal(DashAST t, DashAST a, DashAST b) {
+		return !isInteger(a) || !isInteger(b) || isPromotedToReal(t)
+				|| isPromotedToReal(a) || isPromotedToReal(b);
+	}
+
+	private static int intValue(DashAST t) {
+		return Integer.parseInt(t.getText().replaceAll("_", ""));
+	}
+
+	private static float realValue(DashAST t) {
+		if (isInteger(t))
+			return (float) intValue(t);
+		return Float.parseFloat(t.getText().replaceAll("_", ""));
+	}
+
+	// character of a literal, with or without its quotes, -1 if unknown
+	static int charValue(DashAST t) {
+		String text = t.getText();
+		if (text.length() > 2 && text.startsWith("'") && text.endsWith("'"))
+			text = text.substring(1, text.length() - 1);
+
+		if (text.length() == 1 && !text.equals("'"))
+			return text.charAt(0);
+
+		if (text.equals("\\a")) return 7;
+		if (text.equals("\\b")) return '\b';
+		if (text.equals("\\n")) return '\n';
+		if (text.equals("\\r")) return '\r';
+		if (text.equals("\\t")) return '\t';
+		if (text.equals("\\\\")) return '\\';
+		if (text.equals("\\\"")) return '\"';
+		if (text.equals("\\0")) return 0;
+		return -1;
+	}
+
+	// literal of a character, null if it has none
+	private static String charText(int c) {
+		switch (c) {
+		case 0: return "'\\0'";
+		case 7: return "'\\a'";
+		case '\b': return "'\\b'";
+		case '\n': return "'\\n'";
+		case '\r': return "'\\r'";
+		case '\t': return "'\\t'";
+		case '\\': return "'\\\\'";
+		case '\'': return null;
+		}
+
+		if (c >= ' ' && c <= '~')
+			return "'" + (char) c + "'";
+		return null;
+	}
+
+	private void replace(DashAST t, int type, String text) {
+		t.token = new CommonToken(type, text);
+		while (t.getChildCount() > 0)
+			t.deleteChild(t.getChildCount() - 1);
+		changes++;
+	}
+
+	private void toInteger(DashAST t, int value) {
+		replace(t, DashLexer.INTEGER, Integer.toString(value));
+	}
+
+	private void toReal(DashAST t, float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value))
+			return;
+
+		replace(t, DashLexer.REAL, Float.toString(value));
+		t.evalType = SymbolTable._real;
+		if (isPromotedToReal(t))
+			t.promoteToType = null;
+	}
+
+	private void toBoolean(DashAST t, boolean value) {
+		if (value)
+			replace(t, DashLexer.True, "true");
+		else
+			replace(t, DashLexer.False, "false");
+	}
+
+	private void toCharacter(DashAST t, int value) {
+		String text = charText(value);
+		if (text != null)
+			replace(t, DashLexer.CHARACTER, text);
+	}
+
+	/** Folds t if its operands are constants, true if it was folded */
+	public boolean fold(DashAST t) {
+		int before = changes;
+
+		if (isAggregate(t.evalType)) {
+			// promoted operands are converted by the operation using them
+			if (t.promoteToType == null)
+				aggregate(t);
+			return changes > before;
+		}
+
 		switch (t.getToken().getType()) {
-//		case DashLexer.ID: {
-//			if (t.symbol != null) {
-//				if (t.symbol.type != null) {
-//					if (t.symbol.type.getClass() == VectorType.class) {
-//						VectorType vector = (VectorType) t.symbol.type;
-//						DashAST size = (DashAST) vector.def.getChild(1);
-//						exec((DashAST) size);
-//						if (size.token.getType() == DashLexer.EXPR) {
-//							DashAST size_value = (DashAST) size.getChild(0);
-//							if (size_value.token.getType() == DashLexer.INTEGER) {
-//								int s = Integer.parseInt(size_value.getText().replaceAll("_", ""));
-//								vector.size = s;
-//							}
-//						}
-//					}
-//				}
-//			}
-//			break;
-//		}
 		// Binary Ops
-		case DashLexer.ADD: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = i1 + i2;
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR:
+		case DashLexer.POWER:
+			arithmetic(t);
 			break;
-		}
-		
-		case DashLexer.SUBTRACT: {
+
+		// Unary Ops
+		case DashLexer.UNARY_MINUS: {
 			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = i1 - i2;
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+			if (isInteger(arg1))
+				toInteger(t, -intValue(arg1));
+			else if (isNumber(arg1))
+				toReal(t, -realValue(arg1));
+
 			break;
 		}
-		
-		case DashLexer.MULTIPLY: {
+
+		case DashLexer.Not: {
 			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = i1 * i2;
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+			if (isBoolean(arg1))
+				toBoolean(t, arg1.getToken().getType() == DashLexer.False);
+
 			break;
 		}
-		
-		case DashLexer.DIVIDE: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = i1 / i2;
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+		// Equality and Relational Ops
+		case DashLexer.EQUALITY:
+		case DashLexer.INEQUALITY:
+		case DashLexer.LESS:
+		case DashLexer.GREATER:
+		case DashLexer.LESS_EQUAL:
+		case DashLexer.GREATER_EQUAL:
+			comparison(t);
 			break;
-		}
-		
-		case DashLexer.MODULAR: {
+
+		// Logic Ops
+		case DashLexer.And:
+		case DashLexer.Or:
+		case DashLexer.Xor: {
 			DashAST arg1 = (DashAST) t.getChild(0);
 			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = i1 % i2;
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+
+			if (isBoolean(arg1) && isBoolean(arg2)) {
+				boolean b1 = arg1.getToken().getType() == DashLexer.True;
+				boolean b2 = arg2.getToken().getType() == DashLexer.True;
+
+				if (t.getToken().getType() == DashLexer.And)
+					toBoolean(t, b1 && b2);
+				else if (t.getToken().getType() == DashLexer.Or)
+					toBoolean(t, b1 || b2);
+				else
+					toBoolean(t, b1 != b2);
 			}
-			
+
 			break;
 		}
-		
-		case DashLexer.POWER: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				int i3 = ipow(i1, i2);
-				
-				String result = Integer.toString(i3);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+		case DashLexer.TYPECAST:
+			typecast(t);
 			break;
-		}
-		
-		// Unary Op
-		case DashLexer.UNARY_MINUS: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				
-				String result = Integer.toString(-i1);
-				t.token = new CommonToken(DashLexer.INTEGER, result);
-				
-				t.deleteChild(0);
-			}
-			
+
+		case DashLexer.CALL:
+			length(t);
+			if (changes == before)
+				function(t);
 			break;
 		}
-		
-		case DashLexer.Not: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			
-			// Booleans
-			if ((arg1.getToken().getType() == DashLexer.True ||
-					arg1.getToken().getType() == DashLexer.False)	&&
-					t.promoteToType == null) {
-				
-				if (arg1.getToken().getType() == DashLexer.True)
-					t.token = new CommonToken(DashLexer.False, "false");
-				else if (arg1.getToken().getType() == DashLexer.False)
-					t.token = new CommonToken(DashLexer.True, "true");
-				
-				t.deleteChild(0);
+
+		return changes > before;
+	}
+
+	private void arithmetic(DashAST t) {
+		DashAST arg1 = (DashAST) t.getChild(0);
+		DashAST arg2 = (DashAST) t.getChild(1);
+		if (!isNumber(arg1) || !isNumber(arg2))
+			return;
+
+		// Reals
+		if (isReal(t, arg1, arg2)) {
+			float f1 = realValue(arg1);
+			float f2 = realValue(arg2);
+
+			switch (t.getToken().getType()) {
+			case DashLexer.ADD: toReal(t, f1 + f2); break;
+			case DashLexer.SUBTRACT: toReal(t, f1 - f2); break;
+			case DashLexer.MULTIPLY: toReal(t, f1 * f2); break;
+			case DashLexer.DIVIDE: toReal(t, f1 / f2); break;
+			case DashLexer.MODULAR: toReal(t, f1 % f2); break;
+			// powf may round differently than Math.pow, left to run time
+			case DashLexer.POWER: break;
 			}
-			
-			break;
+
+			return;
 		}
-		
-		// Equality Ops
-		case DashLexer.EQUALITY: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			int op1 = arg1.getToken().getType();
-			int op2 = arg2.getToken().getType();
-			
-			// Booleans
-			if ((op1 == DashLexer.True ||
-					op1 == DashLexer.False) &&
-					(op2 == DashLexer.True ||
-					op2 == DashLexer.False) && 
-					t.promoteToType == null) {
-				if (op1 == op2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
-			// Integers
-			if (op1 == DashLexer.INTEGER
-					&& op2 == DashLexer.INTEGER
-					&& t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-
-				if (i1 == i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+		// Integers
+		int i1 = intValue(arg1);
+		int i2 = intValue(arg2);
+
+		switch (t.getToken().getType()) {
+		case DashLexer.ADD: toInteger(t, i1 + i2); break;
+		case DashLexer.SUBTRACT: toInteger(t, i1 - i2); break;
+		case DashLexer.MULTIPLY: toInteger(t, i1 * i2); break;
+		case DashLexer.DIVIDE:
+			// division by zero, and the one overflowing division, are left
+			// to fail at run time
+			if (i2 != 0 && !(i1 == Integer.MIN_VALUE && i2 == -1))
+				toInteger(t, i1 / i2);
+			break;
+		case DashLexer.MODULAR:
+			if (i2 != 0 && !(i1 == Integer.MIN_VALUE && i2 == -1))
+				toInteger(t, i1 % i2);
 			break;
+		case DashLexer.POWER: toInteger(t, ipow(i1, i2)); break;
 		}
+	}
 
-		
-		case DashLexer.INEQUALITY: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			int op1 = arg1.getToken().getType();
-			int op2 = arg2.getToken().getType();
-			
-			// Booleans
-			if ((op1 == DashLexer.True ||
-					op1 == DashLexer.False) &&
-					(op2 == DashLexer.True ||
-					op2 == DashLexer.False) && 
-					t.promoteToType == null) {
-
-				if (op1 != op2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-
-				t.deleteChild(1);
-				t.deleteChild(0);
+	private void comparison(DashAST t) {
+		DashAST arg1 = (DashAST) t.getChild(0);
+		DashAST arg2 = (DashAST) t.getChild(1);
+		int op = t.getToken().getType();
+
+		int order;
+		if (isNumber(arg1) && isNumber(arg2)) {
+			if (isReal(t, arg1, arg2)) {
+				float f1 = realValue(arg1);
+				float f2 = realValue(arg2);
+				order = f1 < f2 ? -1 : (f1 > f2 ? 1 : 0);
+			} else {
+				int i1 = intValue(arg1);
+				int i2 = intValue(arg2);
+				order = i1 < i2 ? -1 : (i1 > i2 ? 1 : 0);
 			}
-			
-			// Integers
-			if (op1 == DashLexer.INTEGER
-					&& op2 == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				
-				if (i1 != i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+		} else if (isCharacter(arg1) && isCharacter(arg2)) {
+			order = charValue(arg1) - charValue(arg2);
+		} else if (isBoolean(arg1) && isBoolean(arg2)
+				&& (op == DashLexer.EQUALITY || op == DashLexer.INEQUALITY)) {
+			order = arg1.getToken().getType() == arg2.getToken().getType() ? 0 : 1;
+		} else if (isRange(arg1) && isRange(arg2)
+				&& (op == DashLexer.EQUALITY || op == DashLexer.INEQUALITY)) {
+			boolean same = lower(arg1) == lower(arg2) && upper(arg1) == upper(arg2);
+			order = same ? 0 : 1;
+		} else {
+			return;
+		}
+
+		switch (op) {
+		case DashLexer.EQUALITY: toBoolean(t, order == 0); break;
+		case DashLexer.INEQUALITY: toBoolean(t, order != 0); break;
+		case DashLexer.LESS: toBoolean(t, order < 0); break;
+		case DashLexer.GREATER: toBoolean(t, order > 0); break;
+		case DashLexer.LESS_EQUAL: toBoolean(t, order <= 0); break;
+		case DashLexer.GREATER_EQUAL: toBoolean(t, order >= 0); break;
+		}
+	}
+
+	// casts between the scalar types, as the generated code casts them
+	private void typecast(DashAST t) {
+		if (t.getChildCount() != 1 || t.evalType == null)
+			return;
+
+		DashAST expr = (DashAST) t.getChild(0);
+		if (expr.getToken().getType() != DashLexer.EXPR || expr.getChildCount() != 1)
+			return;
+
+		DashAST arg = (DashAST) expr.getChild(0);
+		int to = t.evalType.getTypeIndex();
+
+		// the value of the operand as an integer, reals are cast on their own
+		int value;
+		if (isInteger(arg)) {
+			value = intValue(arg);
+		} else if (isCharacter(arg)) {
+			value = charValue(arg);
+		} else if (isBoolean(arg)) {
+			value = arg.getToken().getType() == DashLexer.True ? 1 : 0;
+		} else if (arg.getToken().getType() == DashLexer.REAL) {
+			float f = realValue(arg);
+			if (to == SymbolTable.tREAL) {
+				toReal(t, f);
+			} else if (to == SymbolTable.tINTEGER) {
+				double floor = Math.floor(f);
+				if (floor >= Integer.MIN_VALUE && floor <= Integer.MAX_VALUE)
+					toInteger(t, (int) floor);
 			}
-			
-			break;
+			return;
+		} else {
+			return;
 		}
-		
-		// Relational Ops
-		case DashLexer.LESS: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				
-				if (i1 < i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+
+		switch (to) {
+		case SymbolTable.tINTEGER: toInteger(t, value); break;
+		case SymbolTable.tREAL: toReal(t, (float) value); break;
+		case SymbolTable.tBOOLEAN: toBoolean(t, value != 0); break;
+		case SymbolTable.tCHARACTER: toCharacter(t, value % 256); break;
+		}
+	}
+
+	private static boolean isAggregate(Type type) {
+		if (type == null)
+			return false;
+
+		int index = type.getTypeIndex();
+		return index == SymbolTable.tINTERVAL || index == SymbolTable.tVECTOR
+				|| index == SymbolTable.tMATRIX;
+	}
+
+	// interval with literal bounds
+	private static boolean isRange(DashAST t) {
+		return t.getToken().getType() == DashLexer.RANGE && t.promoteToType == null
+				&& isInteger((DashAST) t.getChild(0)) && isInteger((DashAST) t.getChild(1));
+	}
+
+	private static int lower(DashAST range) {
+		return intValue((DashAST) range.getChild(0));
+	}
+
+	private static int upper(DashAST range) {
+		return intValue((DashAST) range.getChild(1));
+	}
+
+	private static boolean isList(DashAST t) {
+		return t.getToken().getType() == DashLexer.VECTOR_LIST && t.promoteToType == null;
+	}
+
+	private static boolean isScalar(DashAST t) {
+		return ConstantPropagation.value(t) != null;
+	}
+
+	// literal elements of a vector literal, null if one is not a literal
+	private static List<DashAST> literals(DashAST list) {
+		List<DashAST> elements = new ArrayList<DashAST>();
+		for (int i = 0; i < list.getChildCount(); i++) {
+			DashAST expr = (DashAST) list.getChild(i);
+			if (expr.getChildCount() != 1 || !isScalar((DashAST) expr.getChild(0)))
+				return null;
+			elements.add((DashAST) expr.getChild(0));
+		}
+		return elements;
+	}
+
+	// rows of a vector or matrix of literals, null if t is neither
+	private static List<List<DashAST>> rows(DashAST t) {
+		if (!isList(t) || t.evalType == null)
+			return null;
+
+		List<List<DashAST>> rows = new ArrayList<List<DashAST>>();
+		if (t.evalType.getTypeIndex() == SymbolTable.tVECTOR) {
+			List<DashAST> row = literals(t);
+			if (row == null)
+				return null;
+			rows.add(row);
+		} else {
+			for (int i = 0; i < t.getChildCount(); i++) {
+				DashAST expr = (DashAST) t.getChild(i);
+				DashAST row = expr.getChildCount() == 1 ? (DashAST) expr.getChild(0) : null;
+				List<DashAST> elements = row != null && isList(row) ? literals(row) : null;
+				// the runtime pads short rows, which is not folded
+				if (elements == null || (i > 0 && elements.size() != rows.get(0).size()))
+					return null;
+				rows.add(elements);
 			}
-			
-			break;
 		}
-		
-		case DashLexer.GREATER: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				
-				if (i1 > i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+		return rows;
+	}
+
+	private static Type elementType(Type type) {
+		if (type.getTypeIndex() == SymbolTable.tVECTOR)
+			return ((VectorType) type).elementType;
+		return ((MatrixType) type).elementType;
+	}
+
+	private static DashAST copy(DashAST literal) {
+		DashAST t = new DashAST(literal.getToken());
+		t.evalType = literal.evalType;
+		t.promoteToType = literal.promoteToType;
+		return t;
+	}
+
+	private static DashAST expr(DashAST t) {
+		DashAST expr = new DashAST(new CommonToken(DashLexer.EXPR, "EXPR"));
+		expr.evalType = t.evalType;
+		expr.addChild(t);
+		return expr;
+	}
+
+	// the literal op gives for one element, null if it does not fold
+	private DashAST element(DashAST op, Type type, DashAST a, DashAST b) {
+		DashAST t = new DashAST(op.getToken());
+		t.evalType = type;
+		t.addChild(copy(a));
+		if (b != null)
+			t.addChild(copy(b));
+
+		int before = changes;
+		fold(t);
+		changes = before;
+
+		if (!isScalar(t) || t.evalType.getTypeIndex() != type.getTypeIndex())
+			return null;
+		return t;
+	}
+
+	// replaces the children of t by new ones
+	private void replace(DashAST t, int type, String text, List<DashAST> children) {
+		replace(t, type, text);
+		for (DashAST child : children)
+			t.addChild(child);
+	}
+
+	// replaces t by a vector or matrix literal of its type
+	private void toList(DashAST t, List<List<DashAST>> rows) {
+		List<DashAST> children = new ArrayList<DashAST>();
+
+		if (t.evalType.getTypeIndex() == SymbolTable.tVECTOR) {
+			for (DashAST element : rows.get(0))
+				children.add(expr(element));
+		} else {
+			Type elementType = elementType(t.evalType);
+			for (List<DashAST> row : rows) {
+				DashAST list = new DashAST(new CommonToken(DashLexer.VECTOR_LIST, "VECTOR_LIST"));
+				list.evalType = new VectorType(elementType, 0);
+				for (DashAST element : row)
+					list.addChild(expr(element));
+				children.add(expr(list));
 			}
-			
-			break;
 		}
-		
-		case DashLexer.LESS_EQUAL: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				
-				if (i1 <= i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+
+		replace(t, DashLexer.VECTOR_LIST, "VECTOR_LIST", children);
+	}
+
+	private void toRange(DashAST t, int lower, int upper) {
+		DashAST a = new DashAST(new CommonToken(DashLexer.INTEGER, Integer.toString(lower)));
+		DashAST b = new DashAST(new CommonToken(DashLexer.INTEGER, Integer.toString(upper)));
+		a.evalType = SymbolTable._integer;
+		b.evalType = SymbolTable._integer;
+
+		List<DashAST> bounds = new ArrayList<DashAST>();
+		bounds.add(a);
+		bounds.add(b);
+		replace(t, DashLexer.RANGE, "..", bounds);
+	}
+
+	// folds the operations on interval, vector and matrix literals
+	private void aggregate(DashAST t) {
+		int op = t.getToken().getType();
+
+		switch (op) {
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.UNARY_MINUS:
+			if (t.evalType.getTypeIndex() == SymbolTable.tINTERVAL) {
+				interval(t);
+				return;
 			}
-			
 			break;
+
+		case DashLexer.By:
+			by(t);
+			return;
+
+		case DashLexer.CONCAT:
+			concat(t);
+			return;
 		}
-		
-		case DashLexer.GREATER_EQUAL: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			// Integers
-			if (arg1.getToken().getType() == DashLexer.INTEGER &&
-					arg2.getToken().getType() == DashLexer.INTEGER &&
-					t.promoteToType == null) {
-				int i1 = Integer.parseInt(arg1.getText().replaceAll("_", ""));
-				int i2 = Integer.parseInt(arg2.getText().replaceAll("_", ""));
-				
-				if (i1 >= i2) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+
+		switch (op) {
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR:
+		case DashLexer.POWER:
+		case DashLexer.UNARY_MINUS:
+		case DashLexer.Not:
+		case DashLexer.And:
+		case DashLexer.Or:
+		case DashLexer.Xor:
+		case DashLexer.LESS:
+		case DashLexer.GREATER:
+		case DashLexer.LESS_EQUAL:
+		case DashLexer.GREATER_EQUAL:
+			elementwise(t);
 			break;
 		}
-		
-		// Logic Ops
-		case DashLexer.And: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			int op1 = arg1.getToken().getType();
-			int op2 = arg2.getToken().getType();
-			
-			// Booleans
-			if ((op1 == DashLexer.True ||
-					op1 == DashLexer.False) &&
-					(op2 == DashLexer.True ||
-					op2 == DashLexer.False) && 
-					t.promoteToType == null) {
-				if (op1 == DashLexer.True && op2 == DashLexer.True) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+	}
+
+	// same as the interval operations of the runtime
+	private void interval(DashAST t) {
+		DashAST arg1 = (DashAST) t.getChild(0);
+		if (!isRange(arg1))
+			return;
+
+		int a = lower(arg1);
+		int b = upper(arg1);
+
+		if (t.getToken().getType() == DashLexer.UNARY_MINUS) {
+			toRange(t, -b, -a);
+			return;
+		}
+
+		DashAST arg2 = (DashAST) t.getChild(1);
+		if (!isRange(arg2))
+			return;
+
+		int c = lower(arg2);
+		int d = upper(arg2);
+
+		switch (t.getToken().getType()) {
+		case DashLexer.ADD:
+			toRange(t, a + c, b + d);
+			break;
+		case DashLexer.SUBTRACT:
+			toRange(t, a - d, b - c);
+			break;
+		case DashLexer.MULTIPLY: {
+			int ac = a * c, ad = a * d, bc = b * c, bd = b * d;
+			toRange(t, Math.min(Math.min(ac, ad), Math.min(bc, bd)),
+					Math.max(Math.max(ac, ad), Math.max(bc, bd)));
 			break;
 		}
-		
-		case DashLexer.Or: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			int op1 = arg1.getToken().getType();
-			int op2 = arg2.getToken().getType();
-			
-			// Booleans
-			if ((op1 == DashLexer.True ||
-					op1 == DashLexer.False) &&
-					(op2 == DashLexer.True ||
-					op2 == DashLexer.False) && 
-					t.promoteToType == null) {
-				if (op1 == DashLexer.True || op2 == DashLexer.True) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
-			}
-			
+		case DashLexer.DIVIDE: {
+			if (c == 0 || d == 0)
+				break; // division by zero is left to fail at run time
+			int ac = a / c, ad = a / d, bc = b / c, bd = b / d;
+			toRange(t, Math.min(Math.min(ac, ad), Math.min(bc, bd)),
+					Math.max(Math.max(ac, ad), Math.max(bc, bd)));
 			break;
 		}
-		
-		case DashLexer.Xor: {
-			DashAST arg1 = (DashAST) t.getChild(0);
-			DashAST arg2 = (DashAST) t.getChild(1);
-			
-			int op1 = arg1.getToken().getType();
-			int op2 = arg2.getToken().getType();
-			
-			// Booleans
-			if ((op1 == DashLexer.True ||
-					op1 == DashLexer.False) &&
-					(op2 == DashLexer.True ||
-					op2 == DashLexer.False) && 
-					t.promoteToType == null) {
-				if ((op1 == DashLexer.True && op2 == DashLexer.False) ||
-						(op1 == DashLexer.False && op2 == DashLexer.True)) {
-					t.token = new CommonToken(DashLexer.True, "true");
-				} else {
-					t.token = new CommonToken(DashLexer.False, "false");
-				}
-				
-				t.deleteChild(1);
-				t.deleteChild(0);
+		}
+	}
+
+	// same as int_IntervalBy in the runtime
+	private void by(DashAST t) {
+		DashAST range = (DashAST) t.getChild(0);
+		DashAST step = (DashAST) t.getChild(1);
+		if (!isRange(range) || !isInteger(step) || step.promoteToType != null)
+			return;
+
+		int by = intValue(step);
+		if (by < 1)
+			return; // an error at run time
+
+		int size = (int) Math.ceil(((float) (upper(range) - lower(range) + 1)) / by);
+		if (size < 1 || size > MAX_ELEMENTS)
+			return;
+
+		List<DashAST> row = new ArrayList<DashAST>();
+		for (int i = 0; i < size; i++) {
+			DashAST element = new DashAST(new CommonToken(DashLexer.INTEGER,
+					Integer.toString(lower(range) + i * by)));
+			element.evalType = SymbolTable._integer;
+			row.add(element);
+		}
+
+		List<List<DashAST>> rows = new ArrayList<List<DashAST>>();
+		rows.add(row);
+		toList(t, rows);
+	}
+
+	private void concat(DashAST t) {
+		DashAST arg1 = (DashAST) t.getChild(0);
+		DashAST arg2 = (DashAST) t.getChild(1);
+		if (t.evalType.getTypeIndex() != SymbolTable.tVECTOR)
+			return;
+
+		List<List<DashAST>> rows1 = rows(arg1);
+		List<List<DashAST>> rows2 = rows(arg2);
+		if (rows1 == null || rows2 == null
+				|| arg1.evalType.getTypeIndex() != SymbolTable.tVECTOR
+				|| arg2.evalType.getTypeIndex() != SymbolTable.tVECTOR)
+			return;
+
+		// elements of another type are converted by the runtime
+		int type = elementType(t.evalType).getTypeIndex();
+		if (elementType(arg1.evalType).getTypeIndex() != type
+				|| elementType(arg2.evalType).getTypeIndex() != type)
+			return;
+
+		List<DashAST> row = new ArrayList<DashAST>(rows1.get(0));
+		row.addAll(rows2.get(0));
+		if (row.size() > MAX_ELEMENTS)
+			return;
+
+		rows1.set(0, row);
+		toList(t, rows1);
+	}
+
+	// applies the operation of t to every element of its vector or matrix
+	// literal operands, scalar operands apply to every element
+	private void elementwise(DashAST t) {
+		DashAST arg1 = (DashAST) t.getChild(0);
+		DashAST arg2 = t.getChildCount() > 1 ? (DashAST) t.getChild(1) : null;
+
+		List<List<DashAST>> rows1 = isScalar(arg1) ? null : rows(arg1);
+		List<List<DashAST>> rows2 = arg2 == null || isScalar(arg2) ? null : rows(arg2);
+		if ((rows1 == null && !isScalar(arg1))
+				|| (arg2 != null && rows2 == null && !isScalar(arg2))
+				|| (rows1 == null && rows2 == null))
+			return;
+
+		// the list operands must have the shape of the result
+		int kind = t.evalType.getTypeIndex();
+		List<List<DashAST>> shape = rows1 != null ? rows1 : rows2;
+		if ((rows1 != null && arg1.evalType.getTypeIndex() != kind)
+				|| (rows2 != null && arg2.evalType.getTypeIndex() != kind)
+				|| (rows1 != null && rows2 != null && (rows1.size() != rows2.size()
+						|| rows1.get(0).size() != rows2.get(0).size()))
+				|| shape.size() * shape.get(0).size() > MAX_ELEMENTS)
+			return;
+
+		Type type = elementType(t.evalType);
+		List<List<DashAST>> rows = new ArrayList<List<DashAST>>();
+		for (int i = 0; i < shape.size(); i++) {
+			List<DashAST> row = new ArrayList<DashAST>();
+			for (int j = 0; j < shape.get(i).size(); j++) {
+				DashAST a = rows1 != null ? rows1.get(i).get(j) : arg1;
+				DashAST b = arg2 == null ? null : (rows2 != null ? rows2.get(i).get(j) : arg2);
+				DashAST element = element(t, type, a, b);
+				if (element == null)
+					return;
+				row.add(element);
 			}
-			
-			break;
+			rows.add(row);
 		}
+
+		toList(t, rows);
+	}
+
+	// length of a vector or interval literal
+	private void length(DashAST t) {
+		DashAST id = (DashAST) t.getChild(0);
+		DashAST args = (DashAST) t.getChild(1);
+		if (!(id.symbol instanceof MethodSymbol)
+				|| !((MethodSymbol) id.symbol).getShortName().equals("length")
+				|| args == null || args.getChildCount() != 1)
+			return;
+
+		DashAST arg = (DashAST) args.getChild(0);
+		if (arg.getChildCount() != 1)
+			return;
+		arg = (DashAST) arg.getChild(0);
+
+		if (isRange(arg)) {
+			if (upper(arg) >= lower(arg))
+				toInteger(t, upper(arg) - lower(arg) + 1);
+		} else if (isList(arg) && arg.evalType != null
+				&& arg.evalType.getTypeIndex() == SymbolTable.tVECTOR) {
+			toInteger(t, arg.getChildCount());
 		}
 	}
+
+	// calls of functions on constants, run at compile time
+	private void function(DashAST t) {
+		Object value = interpreter.evaluate(t);
+
+		if (value instanceof Integer)
+			toInteger(t, (Integer) value);
+		else if (value instanceof Float)
+			toReal(t, (Float) value);
+		else if (value instanceof Boolean)
+			toBoolean(t, (Boolean) value);
+		else if (value instanceof Character)
+			toCharacter(t, (Character) value);
+	}
 }
@@ -1,6 +1,7 @@
 package ab.dash.opt;
 
 import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
 
 import ab.dash.DashLexer;
 import ab.dash.ast.DashAST;
@@ -8,6 +9,9 @@ import ab.dash.ast.SymbolTable;
 import ab.dash.ast.VariableSymbol;
 
 public class ConstantPropagation {
+	// identifiers replaced by the current run
+	private int changes;
+	
     public ConstantPropagation() {
     }
     
@@ -35,63 +39,90 @@ public class ConstantPropagation {
 		return value;
     }
     
-    public void optimize(DashAST tree) {
+    /** Replaces constant identifiers of tree by their values, returns how
+     *  many were replaced */
+    public int optimize(DashAST tree) {
+    	changes = 0;
 		exec(tree);
+		return changes;
+	}
+	
+    /** Value of a constant, the text of a literal as ConstantPropagation
+     *  keeps it, null if t is not a literal */
+    public static String value(DashAST t) {
+    	switch (t.getToken().getType()) {
+    	case DashLexer.INTEGER:
+    	case DashLexer.REAL:
+    		return t.getText().replaceAll("_", "");
+    	case DashLexer.CHARACTER:
+    	case DashLexer.True:
+    	case DashLexer.False:
+    		return t.getText();
+    	}
+    	return null;
+    }
+	
+    /** Records the value of a variable declared with a constant, true if
+     *  the value is new */
+    public boolean learn(DashAST t) {
+		VariableSymbol s = DefUseIndex.declared(t);
+		DashAST expr = DefUseIndex.initializer(t);
+		
+		if (s != null && expr != null && expr.getChildCount() == 1 &&
+				expr.getToken().getType() == DashLexer.EXPR) {
+			String value = value((DashAST) expr.getChild(0));
+			if (value != null && !value.equals(s.initialValue)) {
+				s.initialValue = value;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/** Replaces an identifier by the value of its variable if that is
+	 *  known, true if it was replaced */
+	public boolean replace(DashAST t) {
+		String value = getValue(t);
+		return value != null && replace(t, value);
+	}
+	
+	/** Replaces an identifier by a value of its variable's type, true if it
+	 *  was replaced */
+	public boolean replace(DashAST t, String value) {
+		int type = t.symbol.type.getTypeIndex();
+		Token before = t.token;
+		
+		if (type == SymbolTable.tINTEGER) {
+			t.token = new CommonToken(DashLexer.INTEGER, value);
+        } else if (type == SymbolTable.tREAL) {
+			t.token = new CommonToken(DashLexer.REAL, value);
+        } else if (type == SymbolTable.tCHARACTER) {
+			t.token = new CommonToken(DashLexer.CHARACTER, value);
+        } else if (type == SymbolTable.tBOOLEAN) {
+        	if (value.equals("true")) {
+        		t.token = new CommonToken(DashLexer.True, value);
+        	} else if (value.equals("false")) {
+        		t.token = new CommonToken(DashLexer.False, value);
+        	} 
+        }
+		
+		if (t.token != before) {
+			changes++;
+			return true;
+		}
+		
+		return false;
 	}
 	
 	protected void exec(DashAST t) {
 		switch (t.getToken().getType()) {
-		case DashLexer.VAR_DECL: {
-			
-			if (t.getChildCount() == 2) {
-				DashAST id = (DashAST) t.getChild(0);
-				DashAST expr = (DashAST) t.getChild(1);
-				
-				if (expr.getChildCount() == 1) {
-					DashAST value = (DashAST) expr.getChild(0);
-					if (id.getToken().getType() == DashLexer.ID) {
-						if (expr.getToken().getType() == DashLexer.EXPR) {
-							int value_type = value.getToken().getType();
-							VariableSymbol s = (VariableSymbol)id.symbol;
-							if (value_type == DashLexer.INTEGER ||
-									value_type == DashLexer.REAL) {
-								s.initialValue = value.getText().replaceAll("_", "");
-							} else if (value_type == DashLexer.CHARACTER ||
-									value_type == DashLexer.True ||
-									value_type == DashLexer.False) {
-								s.initialValue = value.getText();
-							}
-						}
-					}
-				}
-			}
-			
+		case DashLexer.VAR_DECL:
+			learn(t);
 			break;
-		}
-		case DashLexer.ID: {
-			int type = -1;
-			String value = getValue(t);
-			
-			if (value != null) {
-				type = t.symbol.type.getTypeIndex();
-				
-				if (type == SymbolTable.tINTEGER) {
-					t.token = new CommonToken(DashLexer.INTEGER, value);
-		        } else if (type == SymbolTable.tREAL) {
-					t.token = new CommonToken(DashLexer.REAL, value);
-		        } else if (type == SymbolTable.tCHARACTER) {
-					t.token = new CommonToken(DashLexer.CHARACTER, value);
-		        } else if (type == SymbolTable.tBOOLEAN) {
-		        	if (value.equals("true")) {
-		        		t.token = new CommonToken(DashLexer.True, value);
-		        	} else if (value.equals("false")) {
-		        		t.token = new CommonToken(DashLexer.False, value);
-		        	} 
-		        }
-			}
-			
+		case DashLexer.ID:
+			replace(t);
 			break;
-		}
 //		case DashLexer.INTEGER: {
 //			if (t.promoteToType != null) {
 //				if (t.promoteToType.getTypeIndex() == SymbolTable.tREAL) {
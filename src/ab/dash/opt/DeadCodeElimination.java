@@ -0,0 +1,241 @@
+package ab.dash.opt;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+
+/** Removes the statements that never run or do nothing.
+ *
+ *  An if on a constant condition is replaced by the branch it takes, a
+ *  while loop on false is removed and a do-while loop on false is replaced
+ *  by its body. The statements following a return, break or continue in
+ *  their block are removed, and so are the expression statements that
+ *  compute a value without effects. Everything removed is dropped from the
+ *  index too. **/
+public class DeadCodeElimination {
+	DefUseIndex index;
+	boolean debug_mode;
+
+	// statements removed or replaced by the current run
+	private int changes;
+
+	public DeadCodeElimination(DefUseIndex index, boolean debug_mode) {
+		this.index = index;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Removes the dead code of tree, returns the number of statements
+	 *  removed or replaced */
+	public int optimize(DashAST tree) {
+		changes = 0;
+		exec(tree);
+		return changes;
+	}
+
+	protected void exec(DashAST t) {
+		boolean block = t.getToken().getType() == DashLexer.BLOCK;
+
+		for (int i = 0; i < t.getChildCount(); i++) {
+			if (isStatement(t, i) && !statement(t, i)) {
+				i--; // the statement was removed
+				continue;
+			}
+
+			DashAST child = (DashAST) t.getChild(i);
+			exec(child);
+
+			if (block && isJump(child)) {
+				while (t.getChildCount() > i + 1) {
+					debug("line " + t.getChild(i + 1).getLine() + ": unreachable");
+					remove(t, i + 1);
+				}
+			}
+		}
+	}
+
+	// whether child i of t is a statement
+	private static boolean isStatement(DashAST t, int i) {
+		switch (t.getToken().getType()) {
+		case DashLexer.BLOCK:
+			return true;
+		case DashLexer.If:
+			return i > 0;
+		case DashLexer.Loop:
+		case DashLexer.WHILE:
+		case DashLexer.DOWHILE:
+		case DashLexer.ITERATOR:
+			return i == t.getChildCount() - 1;
+		}
+		return false;
+	}
+
+	private static boolean isJump(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.Return:
+		case DashLexer.Break:
+		case DashLexer.Continue:
+			return true;
+		}
+		return false;
+	}
+
+	// value of a constant condition, null if it is not constant
+	private static Boolean constant(DashAST expr) {
+		if (expr.getToken().getType() == DashLexer.EXPR && expr.getChildCount() == 1) {
+			switch (expr.getChild(0).getType()) {
+			case DashLexer.True:
+				return Boolean.TRUE;
+			case DashLexer.False:
+				return Boolean.FALSE;
+			}
+		}
+		return null;
+	}
+
+	// whether evaluating t may have effects or fail at run time
+	private static boolean hasEffects(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+		case DashLexer.ID:
+		case DashLexer.DOT:
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+		case DashLexer.CHARACTER:
+		case DashLexer.True:
+		case DashLexer.False:
+			break;
+
+		// operations on anything but scalars may fail on mismatched sizes
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.POWER:
+		case DashLexer.UNARY_MINUS:
+		case DashLexer.Not:
+		case DashLexer.And:
+		case DashLexer.Or:
+		case DashLexer.Xor:
+		case DashLexer.EQUALITY:
+		case DashLexer.INEQUALITY:
+		case DashLexer.LESS:
+		case DashLexer.GREATER:
+		case DashLexer.LESS_EQUAL:
+		case DashLexer.GREATER_EQUAL:
+			for (int i = 0; i < t.getChildCount(); i++)
+				if (!Effects.isScalar(((DashAST) t.getChild(i)).evalType))
+					return true;
+			break;
+
+		default:
+			return true;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (hasEffects((DashAST) t.getChild(i)))
+				return true;
+		return false;
+	}
+
+	// whether a loop body has a break or continue of its own loop
+	private static boolean jumps(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.Break:
+		case DashLexer.Continue:
+			return true;
+		case DashLexer.Loop:
+		case DashLexer.WHILE:
+		case DashLexer.DOWHILE:
+		case DashLexer.ITERATOR:
+			return false;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (jumps((DashAST) t.getChild(i)))
+				return true;
+		return false;
+	}
+
+	private void remove(DashAST parent, int i) {
+		DashAST t = (DashAST) parent.getChild(i);
+		parent.deleteChild(i);
+		index.remove(t);
+		changes++;
+	}
+
+	// replaces statement i of parent by a statement it contains
+	private void replace(DashAST parent, int i, DashAST statement) {
+		DashAST t = (DashAST) parent.getChild(i);
+		t.deleteChild(statement.getChildIndex());
+		parent.setChild(i, statement);
+		index.remove(t);
+		changes++;
+	}
+
+	// simplifies statement i of parent, false if it was removed
+	private boolean statement(DashAST parent, int i) {
+		DashAST t = (DashAST) parent.getChild(i);
+		// only a block can do without one of its statements
+		boolean block = parent.getToken().getType() == DashLexer.BLOCK;
+
+		switch (t.getToken().getType()) {
+		case DashLexer.If: {
+			Boolean condition = constant((DashAST) t.getChild(0));
+			if (condition == null)
+				break;
+
+			DashAST taken = null;
+			if (condition)
+				taken = (DashAST) t.getChild(1);
+			else if (t.getChildCount() > 2)
+				taken = (DashAST) t.getChild(2);
+
+			if (taken == null) {
+				if (!block)
+					break;
+				debug("line " + t.getLine() + ": if is never taken");
+				remove(parent, i);
+				return false;
+			}
+
+			if (taken.getToken().getType() == DashLexer.VAR_DECL)
+				break;
+			debug("line " + t.getLine() + ": if is always " + condition);
+			replace(parent, i, taken);
+			return statement(parent, i);
+		}
+
+		case DashLexer.WHILE:
+			if (block && Boolean.FALSE.equals(constant((DashAST) t.getChild(0)))) {
+				debug("line " + t.getLine() + ": loop never runs");
+				remove(parent, i);
+				return false;
+			}
+			break;
+
+		case DashLexer.DOWHILE: {
+			DashAST body = (DashAST) t.getChild(1);
+			if (Boolean.FALSE.equals(constant((DashAST) t.getChild(0)))
+					&& body.getToken().getType() != DashLexer.VAR_DECL && !jumps(body)) {
+				debug("line " + t.getLine() + ": loop runs once");
+				replace(parent, i, body);
+				return statement(parent, i);
+			}
+			break;
+		}
+
+		case DashLexer.EXPR:
+			if (block && !hasEffects(t)) {
+				debug("line " + t.getLine() + ": expression has no effect");
+				remove(parent, i);
+				return false;
+			}
+			break;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,137 @@
+package ab.dash.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.VariableSymbol;
+
+/** The declaration and the uses of every variable in the AST.
+ *
+ *  A use is any identifier referring to the variable other than the one in
+ *  its declaration, (VAR_DECL type ID init?). The index is built once and
+ *  the passes changing the tree keep it up to date: an identifier replaced
+ *  by a value is removeUse()d, a removed subtree is remove()d and an added
+ *  one add()ed. **/
+public class DefUseIndex {
+	private Map<VariableSymbol, DashAST> declarations = new HashMap<VariableSymbol, DashAST>();
+	private Map<VariableSymbol, Set<DashAST>> uses = new HashMap<VariableSymbol, Set<DashAST>>();
+
+	public DefUseIndex(DashAST tree) {
+		add(tree);
+	}
+
+	/** Identifier a declaration declares */
+	public static DashAST declaredId(DashAST decl) {
+		return (DashAST) decl.getChild(1);
+	}
+
+	/** Variable a declaration declares, null if it declares none */
+	public static VariableSymbol declared(DashAST decl) {
+		DashAST id = declaredId(decl);
+		if (id != null && id.symbol instanceof VariableSymbol) {
+			return (VariableSymbol) id.symbol;
+		}
+		return null;
+	}
+
+	/** Initializer of a declaration, null if it has none */
+	public static DashAST initializer(DashAST decl) {
+		return (DashAST) decl.getChild(2);
+	}
+
+	private static boolean isDeclaredId(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
+		return parent != null && parent.getToken().getType() == DashLexer.VAR_DECL
+				&& t.getChildIndex() == 1;
+	}
+
+	private static VariableSymbol used(DashAST t) {
+		if (t.getToken().getType() == DashLexer.ID && t.symbol instanceof VariableSymbol
+				&& !isDeclaredId(t)) {
+			return (VariableSymbol) t.symbol;
+		}
+		return null;
+	}
+
+	private Set<DashAST> useSet(VariableSymbol s) {
+		Set<DashAST> ids = uses.get(s);
+		if (ids == null) {
+			ids = new LinkedHashSet<DashAST>();
+			uses.put(s, ids);
+		}
+		return ids;
+	}
+
+	public DashAST declaration(VariableSymbol s) {
+		return declarations.get(s);
+	}
+
+	/** Uses of s in tree order, as far as the tree was indexed in order */
+	public Set<DashAST> uses(VariableSymbol s) {
+		Set<DashAST> ids = uses.get(s);
+		return ids == null ? Collections.<DashAST>emptySet() : Collections.unmodifiableSet(ids);
+	}
+
+	public boolean isUsed(VariableSymbol s) {
+		Set<DashAST> ids = uses.get(s);
+		return ids != null && !ids.isEmpty();
+	}
+
+	/** Indexes the declarations and uses in t */
+	public void add(DashAST t) {
+		if (t.getToken().getType() == DashLexer.VAR_DECL) {
+			VariableSymbol s = declared(t);
+			if (s != null) {
+				declarations.put(s, t);
+			}
+		} else {
+			VariableSymbol s = used(t);
+			if (s != null) {
+				useSet(s).add(t);
+			}
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			add((DashAST) t.getChild(i));
+	}
+
+	/** An identifier no longer refers to its variable, true if that was the
+	 *  last use of the variable */
+	public boolean removeUse(DashAST id) {
+		if (!(id.symbol instanceof VariableSymbol)) {
+			return false;
+		}
+
+		Set<DashAST> ids = uses.get(id.symbol);
+		return ids != null && ids.remove(id) && ids.isEmpty();
+	}
+
+	/** Drops the declarations and uses in t, which was removed from the
+	 *  tree. Returns the variables that lost their last use. */
+	public List<VariableSymbol> remove(DashAST t) {
+		List<VariableSymbol> unused = new ArrayList<VariableSymbol>();
+		remove(t, unused);
+		return unused;
+	}
+
+	private void remove(DashAST t, List<VariableSymbol> unused) {
+		if (t.getToken().getType() == DashLexer.VAR_DECL) {
+			VariableSymbol s = declared(t);
+			if (s != null && declarations.get(s) == t) {
+				declarations.remove(s);
+			}
+		} else if (t.getToken().getType() == DashLexer.ID && removeUse(t)) {
+			unused.add((VariableSymbol) t.symbol);
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			remove((DashAST) t.getChild(i), unused);
+	}
+}
@@ -0,0 +1,119 @@
+package ab.dash.opt;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
+
+/** What evaluating an expression may do besides computing its value.
+ *
+ *  An expression has effects when it calls a method or reads or writes a
+ *  stream. It is safe when it cannot fail at run time either. An
+ *  expression that is not safe may only be dropped or moved where it
+ *  still runs in every case it ran before. **/
+public class Effects {
+	static boolean isScalar(Type type) {
+		if (type == null)
+			return false;
+
+		switch (type.getTypeIndex()) {
+		case SymbolTable.tBOOLEAN:
+		case SymbolTable.tCHARACTER:
+		case SymbolTable.tINTEGER:
+		case SymbolTable.tREAL:
+			return true;
+		}
+		return false;
+	}
+
+	/** Whether evaluating t may call a method or use a stream */
+	public static boolean hasEffects(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.CALL:
+		case DashLexer.STDIN:
+		case DashLexer.STDOUT:
+			return true;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (hasEffects((DashAST) t.getChild(i)))
+				return true;
+		return false;
+	}
+
+	private static boolean isAggregate(DashAST t) {
+		if (t.evalType == null)
+			return false;
+
+		switch (t.evalType.getTypeIndex()) {
+		case SymbolTable.tINTERVAL:
+		case SymbolTable.tVECTOR:
+		case SymbolTable.tMATRIX:
+			return true;
+		}
+		return false;
+	}
+
+	// value of a number literal, seen through its EXPR, null for anything else
+	private static Double number(DashAST t) {
+		while (t.getToken().getType() == DashLexer.EXPR && t.getChildCount() == 1)
+			t = (DashAST) t.getChild(0);
+
+		switch (t.getToken().getType()) {
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+			return Double.valueOf(t.getText().replaceAll("_", ""));
+		}
+		return null;
+	}
+
+	/** Whether evaluating t cannot fail at run time */
+	public static boolean isSafe(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.VECTOR_INDEX:
+		case DashLexer.MATRIX_INDEX:
+			return false;
+
+		case DashLexer.CALL:
+			// only the built in functions are known not to fail
+			if (((DashAST) t.getChild(0)).symbol.def != null)
+				return false;
+			break;
+
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR: {
+			Double divisor = number((DashAST) t.getChild(1));
+			if (divisor == null || divisor == 0)
+				return false;
+			break;
+		}
+
+		case DashLexer.By: {
+			Double step = number((DashAST) t.getChild(1));
+			if (step == null || step <= 0)
+				return false;
+			break;
+		}
+
+		case DashLexer.TYPECAST:
+			if (!isScalar(t.evalType))
+				return false;
+			break;
+
+		case DashLexer.CONCAT:
+		case DashLexer.RANGE:
+			break;
+
+		default:
+			// the sizes of two vectors or matrices may not agree
+			if (t.getChildCount() == 2 && isAggregate((DashAST) t.getChild(0))
+					&& isAggregate((DashAST) t.getChild(1)))
+				return false;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (!isSafe((DashAST) t.getChild(i)))
+				return false;
+		return true;
+	}
+}
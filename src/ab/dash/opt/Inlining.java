@@ -0,0 +1,323 @@
+package ab.dash.opt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.LocalScope;
+import ab.dash.ast.MethodSymbol;
+import ab.dash.ast.Symbol;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
+import ab.dash.ast.VariableSymbol;
+
+/** Replaces the calls of small functions and procedures by their bodies.
+ *
+ *  A function returning a single expression is inlined as that expression,
+ *  with its arguments in place of its parameters. An argument other than a
+ *  variable or literal must have no effects and be used exactly once, so it
+ *  is still computed once.
+ *
+ *  A procedure called as a statement is inlined as the statements of its
+ *  body, which must not declare anything or return. Its arguments are
+ *  passed by reference, so they must be variables, or literals for the
+ *  parameters the procedure does not change.
+ *
+ *  Recursive calls and bodies larger than the size limit are left alone,
+ *  and so are the calls in code that was just inlined. Run this before the
+ *  other optimizations, which may then fold the inlined code. **/
+public class Inlining {
+	/** Largest body inlined, in nodes */
+	public static final int MAX_SIZE = 40;
+
+	boolean debug_mode;
+	private int max_size;
+
+	// calls inlined by the current run
+	private int changes;
+
+	public Inlining(boolean debug_mode) {
+		this(MAX_SIZE, debug_mode);
+	}
+
+	public Inlining(int max_size, boolean debug_mode) {
+		this.max_size = max_size;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Inlines the calls in tree, returns the number of calls inlined */
+	public int optimize(DashAST tree) {
+		changes = 0;
+		walk(tree);
+		return changes;
+	}
+
+	private void walk(DashAST t) {
+		boolean block = t.getToken().getType() == DashLexer.BLOCK;
+
+		for (int i = 0; i < t.getChildCount(); i++) {
+			DashAST child = (DashAST) t.getChild(i);
+			walk(child);
+
+			if (child.getToken().getType() == DashLexer.CALL) {
+				function(child);
+			} else if (block && isCallStatement(child)) {
+				i += procedure(t, i) - 1;
+			}
+		}
+	}
+
+	private static boolean isCallStatement(DashAST t) {
+		return t.getToken().getType() == DashLexer.EXPR && t.getChildCount() == 1
+				&& t.getChild(0).getType() == DashLexer.CALL;
+	}
+
+	// the declaration of the method call calls, null for the built in ones
+	private static DashAST declaration(DashAST call) {
+		Symbol method = ((DashAST) call.getChild(0)).symbol;
+		if (!(method instanceof MethodSymbol) || method.def == null) {
+			return null;
+		}
+		return (DashAST) method.def.getParent();
+	}
+
+	// inlines a call of a function returning an expression
+	private void function(DashAST call) {
+		DashAST decl = declaration(call);
+		if (decl == null || decl.getToken().getType() != DashLexer.FUNCTION_DECL
+				|| call.promoteToType != null) {
+			return;
+		}
+
+		DashAST body = (DashAST) decl.getChild(decl.getChildCount() - 1);
+		if (body.getToken().getType() == DashLexer.BLOCK && body.getChildCount() == 1) {
+			body = (DashAST) body.getChild(0);
+		}
+		if (body.getToken().getType() != DashLexer.Return || body.getChildCount() != 1) {
+			return;
+		}
+
+		DashAST expr = (DashAST) body.getChild(0);
+		if (expr.getChildCount() != 1 || expr.promoteToType != null) {
+			return;
+		}
+		DashAST value = (DashAST) expr.getChild(0);
+		if (value.promoteToType != null || !isValue(call.evalType) || !sameType(value.evalType, call.evalType)
+				|| size(value) > max_size || calls(value, decl) || declares(value) || !isPure(value)) {
+			return;
+		}
+
+		Map<Symbol, DashAST> args = arguments(call, decl);
+		if (args == null) {
+			return;
+		}
+
+		// each argument computed once, and still computed if it may fail
+		for (Map.Entry<Symbol, DashAST> arg : args.entrySet()) {
+			DashAST a = arg.getValue();
+			if (!isTrivial(a) && (!isPure(a) || uses(value, arg.getKey()) != 1)) {
+				return;
+			}
+		}
+
+		debug("line " + call.getLine() + ": inlined " + call.getChild(0).getText());
+		call.getParent().setChild(call.getChildIndex(), copy(value, args));
+		changes++;
+	}
+
+	// inlines a procedure called as statement i of block, returns the
+	// number of statements now in its place
+	private int procedure(DashAST block, int i) {
+		DashAST call = (DashAST) block.getChild(i).getChild(0);
+		DashAST decl = declaration(call);
+		if (decl == null || decl.getToken().getType() != DashLexer.PROCEDURE_DECL) {
+			return 1;
+		}
+
+		DashAST body = (DashAST) decl.getChild(decl.getChildCount() - 1);
+		if (body.getToken().getType() != DashLexer.BLOCK || size(body) > max_size
+				|| calls(body, decl) || declares(body)) {
+			return 1;
+		}
+
+		Map<Symbol, DashAST> args = arguments(call, decl);
+		if (args == null) {
+			return 1;
+		}
+
+		// the procedure gets the variables themselves
+		Set<VariableSymbol> written = new HashSet<VariableSymbol>();
+		CommonSubexpressionElimination.written(body, written);
+		for (Map.Entry<Symbol, DashAST> arg : args.entrySet()) {
+			DashAST a = arg.getValue();
+			boolean variable = a.getToken().getType() == DashLexer.ID && a.symbol instanceof VariableSymbol;
+			if (!variable && !(isTrivial(a) && !written.contains(arg.getKey()))) {
+				return 1;
+			}
+		}
+
+		debug("line " + call.getLine() + ": inlined " + call.getChild(0).getText());
+		DashAST statements = new DashAST();
+		for (int j = 0; j < body.getChildCount(); j++)
+			statements.addChild(copy((DashAST) body.getChild(j), args));
+
+		int count = statements.getChildCount();
+		if (count == 0) {
+			block.deleteChild(i);
+		} else {
+			block.replaceChildren(i, i, statements);
+		}
+		changes++;
+		return count;
+	}
+
+	// the arguments of call by the parameters of decl, null if some
+	// argument does not have the exact type of its parameter
+	private static Map<Symbol, DashAST> arguments(DashAST call, DashAST decl) {
+		Map<Symbol, DashAST> args = new HashMap<Symbol, DashAST>();
+		DashAST elist = (DashAST) call.getChild(1);
+		int n = 0;
+
+		for (int i = 0; i < decl.getChildCount(); i++) {
+			DashAST param = (DashAST) decl.getChild(i);
+			if (param.getToken().getType() != DashLexer.ARG_DECL) {
+				continue;
+			}
+			if (elist == null || n >= elist.getChildCount()) {
+				return null;
+			}
+
+			Symbol s = ((DashAST) param.getChild(param.getChildCount() - 1)).symbol;
+			DashAST expr = (DashAST) elist.getChild(n++);
+			if (s == null || expr.getChildCount() != 1 || expr.promoteToType != null) {
+				return null;
+			}
+
+			DashAST arg = (DashAST) expr.getChild(0);
+			if (arg.promoteToType != null || !isValue(s.type) || !sameType(arg.evalType, s.type)) {
+				return null;
+			}
+			args.put(s, arg);
+		}
+
+		if (elist != null && n != elist.getChildCount()) {
+			return null;
+		}
+		return args;
+	}
+
+	private static boolean sameType(Type a, Type b) {
+		return a != null && b != null && a.getTypeIndex() == b.getTypeIndex()
+				&& a.getName().equals(b.getName());
+	}
+
+	// scalars, intervals, vectors and matrices
+	private static boolean isValue(Type type) {
+		if (type == null)
+			return false;
+
+		switch (type.getTypeIndex()) {
+		case SymbolTable.tBOOLEAN:
+		case SymbolTable.tCHARACTER:
+		case SymbolTable.tINTEGER:
+		case SymbolTable.tREAL:
+		case SymbolTable.tINTERVAL:
+		case SymbolTable.tVECTOR:
+		case SymbolTable.tMATRIX:
+			return true;
+		}
+		return false;
+	}
+
+	// a variable or a literal, which costs nothing to compute again
+	private static boolean isTrivial(DashAST t) {
+		return t.getToken().getType() == DashLexer.ID || ConstantPropagation.value(t) != null;
+	}
+
+	private static boolean isPure(DashAST t) {
+		if (!CommonSubexpressionElimination.isPure(t)) {
+			return false;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (!isPure((DashAST) t.getChild(i)))
+				return false;
+		return true;
+	}
+
+	// whether t calls the method declared by decl
+	private static boolean calls(DashAST t, DashAST decl) {
+		if (t.getToken().getType() == DashLexer.CALL && declaration(t) == decl) {
+			return true;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (calls((DashAST) t.getChild(i), decl))
+				return true;
+		return false;
+	}
+
+	// whether t declares variables of its own or returns
+	private static boolean declares(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.VAR_DECL:
+		case DashLexer.TYPEDEF:
+		case DashLexer.ITERATOR:
+		case DashLexer.GENERATOR:
+		case DashLexer.FILTER:
+		case DashLexer.Return:
+			return true;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (declares((DashAST) t.getChild(i)))
+				return true;
+		return false;
+	}
+
+	// uses of s in t, a promoted use counting twice as an argument computed
+	// in its place cannot be promoted
+	private static int uses(DashAST t, Symbol s) {
+		int uses = 0;
+		if (t.getToken().getType() == DashLexer.ID && t.symbol == s) {
+			uses = t.promoteToType != null ? 2 : 1;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			uses += uses((DashAST) t.getChild(i), s);
+		return uses;
+	}
+
+	private static int size(DashAST t) {
+		int size = 1;
+		for (int i = 0; i < t.getChildCount(); i++)
+			size += size((DashAST) t.getChild(i));
+		return size;
+	}
+
+	// copies t, with the arguments in place of the parameters
+	private static DashAST copy(DashAST t, Map<Symbol, DashAST> args) {
+		if (t.getToken().getType() == DashLexer.ID && args.containsKey(t.symbol)) {
+			DashAST arg = copy(args.get(t.symbol), new HashMap<Symbol, DashAST>());
+			arg.promoteToType = t.promoteToType;
+			return arg;
+		}
+
+		DashAST copy = new DashAST(t.getToken());
+		copy.scope = t.scope;
+		if (t.getToken().getType() == DashLexer.BLOCK && t.scope != null) {
+			// the passes after may define variables in it
+			copy.scope = new LocalScope(t.scope.getEnclosingScope());
+		}
+		copy.symbol = t.symbol;
+		copy.evalType = t.evalType;
+		copy.promoteToType = t.promoteToType;
+		for (int i = 0; i < t.getChildCount(); i++)
+			copy.addChild(copy((DashAST) t.getChild(i), args));
+		return copy;
+	}
+}
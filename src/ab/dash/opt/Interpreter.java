@@ -0,0 +1,558 @@
+package ab.dash.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.MethodSymbol;
+import ab.dash.ast.Symbol;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
+import ab.dash.ast.VariableSymbol;
+
+/** Runs the calls of functions on constants at compile time.
+ *
+ *  Functions cannot have effects, so a call whose arguments are literals
+ *  always has the same value. The interpreter runs the typed tree of the
+ *  function on integers, reals, booleans and characters, computed the way
+ *  ConstantFolding computes them. Anything else, a global, a vector, a
+ *  built in call or an operation left to fail at run time, stops it and
+ *  the call is left alone.
+ *
+ *  A call runs at most MAX_STEPS statements and expressions, MAX_DEPTH
+ *  calls deep. The values of the calls run are kept, so a recursive
+ *  function computes each of its calls once. **/
+public class Interpreter {
+	/** Statements and expressions a call may run */
+	public static final int MAX_STEPS = 1000000;
+	/** Calls a call may nest */
+	public static final int MAX_DEPTH = 200;
+
+	// what a statement ends with
+	private static final int NORMAL = 0;
+	private static final int BREAK = 1;
+	private static final int CONTINUE = 2;
+	private static final int RETURN = 3;
+
+	// the call cannot be run at compile time
+	private static class Unknown extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		// thrown as the one UNKNOWN, which needs no stack trace
+		Unknown() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Unknown UNKNOWN = new Unknown();
+
+	// values of the calls run so far, null for those that could not be
+	private Map<String, Object> results = new HashMap<String, Object>();
+
+	private int steps;
+	private int depth;
+
+	// variables of the function running, and the value it returned
+	private Map<Symbol, Object> locals = new HashMap<Symbol, Object>();
+	private Object returned;
+
+	/** Value of call: an Integer, Float, Boolean or Character, null if it
+	 *  does not call a function on constants or could not be run */
+	public Object evaluate(DashAST call) {
+		DashAST decl = declaration(call);
+		if (decl == null) {
+			return null;
+		}
+
+		steps = 0;
+		depth = 0;
+		String key = null;
+		try {
+			List<Object> args = arguments(call);
+			key = key(decl, args);
+			return invoke(decl, args);
+		} catch (Unknown e) {
+			if (key != null) {
+				results.put(key, null);
+			}
+			return null;
+		}
+	}
+
+	// the declaration of the function call calls, null for anything else
+	private static DashAST declaration(DashAST call) {
+		Symbol method = ((DashAST) call.getChild(0)).symbol;
+		if (!(method instanceof MethodSymbol) || method.def == null) {
+			return null;
+		}
+
+		DashAST decl = (DashAST) method.def.getParent();
+		if (decl == null || decl.getToken().getType() != DashLexer.FUNCTION_DECL) {
+			return null;
+		}
+		return decl;
+	}
+
+	private List<Object> arguments(DashAST call) throws Unknown {
+		List<Object> args = new ArrayList<Object>();
+		DashAST elist = (DashAST) call.getChild(1);
+		for (int i = 0; elist != null && i < elist.getChildCount(); i++)
+			args.add(eval((DashAST) elist.getChild(i)));
+		return args;
+	}
+
+	private static String key(DashAST decl, List<Object> args) {
+		StringBuilder key = new StringBuilder();
+		key.append(((DashAST) decl.getChild(0)).symbol.id);
+		for (Object arg : args)
+			key.append(' ').append(arg.getClass().getSimpleName()).append(':').append(arg);
+		return key.toString();
+	}
+
+	private Object invoke(DashAST decl, List<Object> args) throws Unknown {
+		String key = key(decl, args);
+		if (results.containsKey(key)) {
+			Object value = results.get(key);
+			if (value == null)
+				throw UNKNOWN;
+			return value;
+		}
+		if (++depth > MAX_DEPTH) {
+			throw UNKNOWN;
+		}
+
+		Map<Symbol, Object> caller = locals;
+		locals = new HashMap<Symbol, Object>();
+		try {
+			int n = 0;
+			for (int i = 0; i < decl.getChildCount(); i++) {
+				DashAST param = (DashAST) decl.getChild(i);
+				if (param.getToken().getType() != DashLexer.ARG_DECL) {
+					continue;
+				}
+				if (n >= args.size())
+					throw UNKNOWN;
+				assign(((DashAST) param.getChild(param.getChildCount() - 1)).symbol, args.get(n++));
+			}
+			if (n != args.size()) {
+				throw UNKNOWN;
+			}
+
+			if (exec((DashAST) decl.getChild(decl.getChildCount() - 1)) != RETURN) {
+				throw UNKNOWN;
+			}
+			Object value = convert(((DashAST) decl.getChild(0)).symbol.type, returned);
+			results.put(key, value);
+			return value;
+		} finally {
+			locals = caller;
+			depth--;
+		}
+	}
+
+	private void step() throws Unknown {
+		if (++steps > MAX_STEPS)
+			throw UNKNOWN;
+	}
+
+	// value as a value of type, promoting integers to reals
+	private static Object convert(Type type, Object value) throws Unknown {
+		if (type == null || value == null)
+			throw UNKNOWN;
+
+		switch (type.getTypeIndex()) {
+		case SymbolTable.tINTEGER:
+			if (value instanceof Integer)
+				return value;
+			break;
+		case SymbolTable.tREAL:
+			if (value instanceof Integer)
+				return (float) (Integer) value;
+			if (value instanceof Float)
+				return value;
+			break;
+		case SymbolTable.tBOOLEAN:
+			if (value instanceof Boolean)
+				return value;
+			break;
+		case SymbolTable.tCHARACTER:
+			if (value instanceof Character)
+				return value;
+			break;
+		}
+		throw UNKNOWN;
+	}
+
+	private void assign(Symbol s, Object value) throws Unknown {
+		if (!(s instanceof VariableSymbol))
+			throw UNKNOWN;
+		locals.put(s, convert(s.type, value));
+	}
+
+	// the null of a type, the value of a variable declared without one
+	private static Object zero(Type type) throws Unknown {
+		if (type == null)
+			throw UNKNOWN;
+
+		switch (type.getTypeIndex()) {
+		case SymbolTable.tINTEGER: return 0;
+		case SymbolTable.tREAL: return 0.0f;
+		case SymbolTable.tBOOLEAN: return false;
+		case SymbolTable.tCHARACTER: return '\0';
+		}
+		throw UNKNOWN;
+	}
+
+	private int exec(DashAST t) throws Unknown {
+		step();
+
+		switch (t.getToken().getType()) {
+		case DashLexer.BLOCK:
+			for (int i = 0; i < t.getChildCount(); i++) {
+				int status = exec((DashAST) t.getChild(i));
+				if (status != NORMAL)
+					return status;
+			}
+			return NORMAL;
+
+		case DashLexer.VAR_DECL: {
+			VariableSymbol s = DefUseIndex.declared(t);
+			DashAST init = DefUseIndex.initializer(t);
+			if (s == null)
+				throw UNKNOWN;
+			assign(s, init == null ? zero(s.type) : eval(init));
+			return NORMAL;
+		}
+
+		case DashLexer.ASSIGN: {
+			DashAST target = (DashAST) t.getChild(0).getChild(0);
+			if (target.getToken().getType() != DashLexer.ID || !locals.containsKey(target.symbol))
+				throw UNKNOWN;
+			assign(target.symbol, eval((DashAST) t.getChild(1)));
+			return NORMAL;
+		}
+
+		case DashLexer.If:
+			if (condition((DashAST) t.getChild(0)))
+				return exec((DashAST) t.getChild(1));
+			if (t.getChildCount() > 2)
+				return exec((DashAST) t.getChild(2));
+			return NORMAL;
+
+		case DashLexer.WHILE:
+			while (condition((DashAST) t.getChild(0))) {
+				int status = exec((DashAST) t.getChild(1));
+				if (status == BREAK)
+					break;
+				if (status == RETURN)
+					return RETURN;
+			}
+			return NORMAL;
+
+		case DashLexer.DOWHILE:
+			do {
+				int status = exec((DashAST) t.getChild(1));
+				if (status == BREAK)
+					break;
+				if (status == RETURN)
+					return RETURN;
+			} while (condition((DashAST) t.getChild(0)));
+			return NORMAL;
+
+		case DashLexer.Loop:
+			for (;;) {
+				int status = exec((DashAST) t.getChild(0));
+				if (status == BREAK)
+					break;
+				if (status == RETURN)
+					return RETURN;
+			}
+			return NORMAL;
+
+		case DashLexer.ITERATOR:
+			return iterate(t);
+
+		case DashLexer.Break:
+			return BREAK;
+
+		case DashLexer.Continue:
+			return CONTINUE;
+
+		case DashLexer.Return:
+			if (t.getChildCount() != 1)
+				throw UNKNOWN;
+			returned = eval((DashAST) t.getChild(0));
+			return RETURN;
+
+		case DashLexer.EXPR:
+			eval(t);
+			return NORMAL;
+		}
+
+		throw UNKNOWN;
+	}
+
+	private boolean condition(DashAST t) throws Unknown {
+		Object value = eval(t);
+		if (!(value instanceof Boolean))
+			throw UNKNOWN;
+		return (Boolean) value;
+	}
+
+	// a loop over a single interval of literal bounds
+	private int iterate(DashAST t) throws Unknown {
+		DashAST in = (DashAST) t.getChild(0);
+		if (t.getChildCount() != 2 || in.getToken().getType() != DashLexer.IN)
+			throw UNKNOWN;
+
+		DashAST expr = (DashAST) in.getChild(1).getChild(0);
+		DashAST range = expr == null ? null : (DashAST) expr.getChild(0);
+		if (range == null || range.getToken().getType() != DashLexer.RANGE || range.promoteToType != null)
+			throw UNKNOWN;
+
+		int lower = integer(eval((DashAST) range.getChild(0)));
+		int upper = integer(eval((DashAST) range.getChild(1)));
+		Symbol s = ((DashAST) in.getChild(0)).symbol;
+
+		for (long i = lower; i <= upper; i++) {
+			assign(s, (int) i);
+			int status = exec((DashAST) t.getChild(1));
+			if (status == BREAK)
+				break;
+			if (status == RETURN)
+				return RETURN;
+		}
+		return NORMAL;
+	}
+
+	private static int integer(Object value) throws Unknown {
+		if (!(value instanceof Integer))
+			throw UNKNOWN;
+		return (Integer) value;
+	}
+
+	private Object eval(DashAST t) throws Unknown {
+		step();
+
+		Object value = compute(t);
+		if (t.promoteToType != null && t.promoteToType.getTypeIndex() == SymbolTable.tREAL
+				&& value instanceof Integer)
+			value = (float) (Integer) value;
+		return value;
+	}
+
+	private Object compute(DashAST t) throws Unknown {
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+			if (t.getChildCount() != 1)
+				throw UNKNOWN;
+			return eval((DashAST) t.getChild(0));
+
+		case DashLexer.INTEGER:
+			return Integer.parseInt(t.getText().replaceAll("_", ""));
+		case DashLexer.REAL:
+			return Float.parseFloat(t.getText().replaceAll("_", ""));
+		case DashLexer.True:
+			return true;
+		case DashLexer.False:
+			return false;
+		case DashLexer.CHARACTER: {
+			int c = ConstantFolding.charValue(t);
+			if (c < 0)
+				throw UNKNOWN;
+			return (char) c;
+		}
+
+		case DashLexer.ID: {
+			Object value = locals.get(t.symbol);
+			if (value == null)
+				throw UNKNOWN;
+			return value;
+		}
+
+		case DashLexer.ADD:
+		case DashLexer.SUBTRACT:
+		case DashLexer.MULTIPLY:
+		case DashLexer.DIVIDE:
+		case DashLexer.MODULAR:
+		case DashLexer.POWER:
+			return arithmetic(t, eval((DashAST) t.getChild(0)), eval((DashAST) t.getChild(1)));
+
+		case DashLexer.UNARY_MINUS: {
+			Object value = eval((DashAST) t.getChild(0));
+			if (value instanceof Integer)
+				return -(Integer) value;
+			if (value instanceof Float)
+				return -(Float) value;
+			throw UNKNOWN;
+		}
+
+		case DashLexer.Not: {
+			Object value = eval((DashAST) t.getChild(0));
+			if (!(value instanceof Boolean))
+				throw UNKNOWN;
+			return !(Boolean) value;
+		}
+
+		// both operands, the generated code computes them both
+		case DashLexer.And:
+		case DashLexer.Or:
+		case DashLexer.Xor: {
+			Object a = eval((DashAST) t.getChild(0));
+			Object b = eval((DashAST) t.getChild(1));
+			if (!(a instanceof Boolean) || !(b instanceof Boolean))
+				throw UNKNOWN;
+			boolean b1 = (Boolean) a;
+			boolean b2 = (Boolean) b;
+			switch (t.getToken().getType()) {
+			case DashLexer.And: return b1 && b2;
+			case DashLexer.Or: return b1 || b2;
+			default: return b1 != b2;
+			}
+		}
+
+		case DashLexer.EQUALITY:
+		case DashLexer.INEQUALITY:
+		case DashLexer.LESS:
+		case DashLexer.GREATER:
+		case DashLexer.LESS_EQUAL:
+		case DashLexer.GREATER_EQUAL:
+			return comparison(t, eval((DashAST) t.getChild(0)), eval((DashAST) t.getChild(1)));
+
+		case DashLexer.TYPECAST:
+			if (t.getChildCount() != 1 || t.evalType == null)
+				throw UNKNOWN;
+			return cast(t.evalType.getTypeIndex(), eval((DashAST) t.getChild(0)));
+
+		case DashLexer.CALL: {
+			DashAST decl = declaration(t);
+			if (decl == null)
+				throw UNKNOWN;
+			return invoke(decl, arguments(t));
+		}
+		}
+
+		throw UNKNOWN;
+	}
+
+	private static boolean isNumber(Object value) {
+		return value instanceof Integer || value instanceof Float;
+	}
+
+	private static float real(Object value) {
+		if (value instanceof Integer)
+			return (float) (Integer) value;
+		return (Float) value;
+	}
+
+	private static Object arithmetic(DashAST t, Object a, Object b) throws Unknown {
+		if (!isNumber(a) || !isNumber(b))
+			throw UNKNOWN;
+
+		if (a instanceof Float || b instanceof Float || t.promoteToType != null) {
+			float f1 = real(a);
+			float f2 = real(b);
+			float result;
+
+			switch (t.getToken().getType()) {
+			case DashLexer.ADD: result = f1 + f2; break;
+			case DashLexer.SUBTRACT: result = f1 - f2; break;
+			case DashLexer.MULTIPLY: result = f1 * f2; break;
+			case DashLexer.DIVIDE: result = f1 / f2; break;
+			case DashLexer.MODULAR: result = f1 % f2; break;
+			// powf may round differently than Math.pow
+			default: throw UNKNOWN;
+			}
+
+			if (Float.isNaN(result) || Float.isInfinite(result))
+				throw UNKNOWN;
+			return result;
+		}
+
+		int i1 = (Integer) a;
+		int i2 = (Integer) b;
+
+		switch (t.getToken().getType()) {
+		case DashLexer.ADD: return i1 + i2;
+		case DashLexer.SUBTRACT: return i1 - i2;
+		case DashLexer.MULTIPLY: return i1 * i2;
+		case DashLexer.POWER: return ConstantFolding.ipow(i1, i2);
+		}
+
+		// left to fail at run time
+		if (i2 == 0 || (i1 == Integer.MIN_VALUE && i2 == -1))
+			throw UNKNOWN;
+		return t.getToken().getType() == DashLexer.DIVIDE ? i1 / i2 : i1 % i2;
+	}
+
+	private static Object comparison(DashAST t, Object a, Object b) throws Unknown {
+		int op = t.getToken().getType();
+
+		int order;
+		if (isNumber(a) && isNumber(b)) {
+			if (a instanceof Float || b instanceof Float) {
+				float f1 = real(a);
+				float f2 = real(b);
+				order = f1 < f2 ? -1 : (f1 > f2 ? 1 : 0);
+			} else {
+				int i1 = (Integer) a;
+				int i2 = (Integer) b;
+				order = i1 < i2 ? -1 : (i1 > i2 ? 1 : 0);
+			}
+		} else if (a instanceof Character && b instanceof Character) {
+			order = (Character) a - (Character) b;
+		} else if (a instanceof Boolean && b instanceof Boolean
+				&& (op == DashLexer.EQUALITY || op == DashLexer.INEQUALITY)) {
+			order = a.equals(b) ? 0 : 1;
+		} else {
+			throw UNKNOWN;
+		}
+
+		switch (op) {
+		case DashLexer.EQUALITY: return order == 0;
+		case DashLexer.INEQUALITY: return order != 0;
+		case DashLexer.LESS: return order < 0;
+		case DashLexer.GREATER: return order > 0;
+		case DashLexer.LESS_EQUAL: return order <= 0;
+		default: return order >= 0;
+		}
+	}
+
+	// casts between the scalar types, as ConstantFolding casts them
+	private static Object cast(int to, Object value) throws Unknown {
+		if (value instanceof Float) {
+			float f = (Float) value;
+			if (to == SymbolTable.tREAL)
+				return f;
+
+			double floor = Math.floor(f);
+			if (to == SymbolTable.tINTEGER && floor >= Integer.MIN_VALUE && floor <= Integer.MAX_VALUE)
+				return (int) floor;
+			throw UNKNOWN;
+		}
+
+		int i;
+		if (value instanceof Integer)
+			i = (Integer) value;
+		else if (value instanceof Character)
+			i = (Character) value;
+		else if (value instanceof Boolean)
+			i = (Boolean) value ? 1 : 0;
+		else
+			throw UNKNOWN;
+
+		switch (to) {
+		case SymbolTable.tINTEGER: return i;
+		case SymbolTable.tREAL: return (float) i;
+		case SymbolTable.tBOOLEAN: return i != 0;
+		case SymbolTable.tCHARACTER:
+			if (i < 0)
+				throw UNKNOWN;
+			return (char) (i % 256);
+		}
+		throw UNKNOWN;
+	}
+}
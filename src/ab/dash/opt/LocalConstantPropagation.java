@@ -0,0 +1,271 @@
+package ab.dash.opt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.VariableSymbol;
+
+/** Propagates the constants assigned to local variables through the body of
+ *  every function and procedure, following the order the statements run in.
+ *
+ *  The values known at each statement map variables to constants. A
+ *  declaration or assignment of a constant sets the value of its variable,
+ *  any other assignment, input or call that may change the variable drops
+ *  it. After an if, only the values both branches agree on are kept. The
+ *  variables a loop changes anywhere in its body are dropped before the
+ *  loop, the values of the others hold throughout and after it.
+ *
+ *  The expressions of every statement are folded once their variables are
+ *  replaced, so a variable assigned from a foldable expression gets a value
+ *  too. **/
+public class LocalConstantPropagation {
+	DefUseIndex index;
+	ConstantFolding folding;
+	ConstantPropagation propagation = new ConstantPropagation();
+	boolean debug_mode;
+
+	// identifiers replaced and expressions folded by the current run
+	private int changes;
+
+	public LocalConstantPropagation(DefUseIndex index, ConstantFolding folding, boolean debug_mode) {
+		this.index = index;
+		this.folding = folding;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Propagates the local constants of every method in tree, returns the
+	 *  number of changes made */
+	public int optimize(DashAST tree) {
+		changes = 0;
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			DashAST method = (DashAST) tree.getChild(i);
+			int type = method.getToken().getType();
+			if (type == DashLexer.FUNCTION_DECL || type == DashLexer.PROCEDURE_DECL) {
+				DashAST body = (DashAST) method.getChild(method.getChildCount() - 1);
+				int body_type = body.getToken().getType();
+				if (body_type == DashLexer.BLOCK || body_type == DashLexer.Return) {
+					statement(body, new HashMap<VariableSymbol, String>());
+				}
+			}
+		}
+
+		return changes;
+	}
+
+	// whether the values of s can be tracked
+	private static boolean isTracked(VariableSymbol s) {
+		if (s == null || s.type == null || s.scope == null
+				|| s.scope.getScopeIndex() == SymbolTable.scGLOBAL) {
+			return false;
+		}
+
+		switch (s.type.getTypeIndex()) {
+		case SymbolTable.tINTEGER:
+		case SymbolTable.tREAL:
+		case SymbolTable.tCHARACTER:
+		case SymbolTable.tBOOLEAN:
+			return true;
+		}
+		return false;
+	}
+
+	// variable an assignment target refers to, null if it is not a variable
+	private static VariableSymbol target(DashAST lhs) {
+		DashAST id = lhs.getToken().getType() == DashLexer.EXPR ? (DashAST) lhs.getChild(0) : lhs;
+		if (id != null && id.getToken().getType() == DashLexer.ID && id.symbol instanceof VariableSymbol) {
+			return (VariableSymbol) id.symbol;
+		}
+		return null;
+	}
+
+	// value of an expression folded to a constant, null if it is not one
+	private static String value(DashAST expr) {
+		if (expr != null && expr.getToken().getType() == DashLexer.EXPR && expr.getChildCount() == 1) {
+			return ConstantPropagation.value((DashAST) expr.getChild(0));
+		}
+		return null;
+	}
+
+	private static void assign(VariableSymbol s, DashAST expr, Map<VariableSymbol, String> values) {
+		if (s == null) {
+			return;
+		}
+
+		String value = value(expr);
+		if (value != null && isTracked(s)) {
+			values.put(s, value);
+		} else {
+			values.remove(s);
+		}
+	}
+
+	private void statement(DashAST t, Map<VariableSymbol, String> values) {
+		switch (t.getToken().getType()) {
+		case DashLexer.BLOCK:
+			for (int i = 0; i < t.getChildCount(); i++)
+				statement((DashAST) t.getChild(i), values);
+			break;
+
+		case DashLexer.VAR_DECL: {
+			DashAST init = DefUseIndex.initializer(t);
+			if (init != null) {
+				expression(init, values);
+			}
+			assign(DefUseIndex.declared(t), init, values);
+			break;
+		}
+
+		case DashLexer.ASSIGN:
+			expression((DashAST) t.getChild(1), values);
+			assign(target((DashAST) t.getChild(0)), (DashAST) t.getChild(1), values);
+			break;
+
+		case DashLexer.INPUT:
+			for (int i = 0; i < t.getChildCount(); i++)
+				values.remove(target((DashAST) t.getChild(i)));
+			break;
+
+		case DashLexer.UNPACK:
+			expression((DashAST) t.getChild(t.getChildCount() - 1), values);
+			for (int i = 0; i < t.getChildCount() - 1; i++)
+				values.remove(target((DashAST) t.getChild(i)));
+			break;
+
+		case DashLexer.If: {
+			expression((DashAST) t.getChild(0), values);
+
+			Map<VariableSymbol, String> then_values = new HashMap<VariableSymbol, String>(values);
+			statement((DashAST) t.getChild(1), then_values);
+			if (t.getChildCount() > 2) {
+				statement((DashAST) t.getChild(2), values);
+			}
+
+			// keep what both branches agree on
+			Iterator<Map.Entry<VariableSymbol, String>> it = values.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<VariableSymbol, String> entry = it.next();
+				if (!entry.getValue().equals(then_values.get(entry.getKey()))) {
+					it.remove();
+				}
+			}
+			break;
+		}
+
+		case DashLexer.Loop:
+		case DashLexer.WHILE:
+		case DashLexer.DOWHILE:
+		case DashLexer.ITERATOR: {
+			Set<VariableSymbol> changed = new HashSet<VariableSymbol>();
+			changed(t, changed);
+			values.keySet().removeAll(changed);
+
+			// the condition or domains, then the body
+			int body = t.getChildCount() - 1;
+			for (int i = 0; i < body; i++)
+				expression((DashAST) t.getChild(i), values);
+			statement((DashAST) t.getChild(body), new HashMap<VariableSymbol, String>(values));
+			break;
+		}
+
+		case DashLexer.TYPEDEF:
+		case DashLexer.Break:
+		case DashLexer.Continue:
+			break;
+
+		default:
+			// print, return and call statements
+			expression(t, values);
+		}
+	}
+
+	// collects the variables the statements in t may change
+	private static void changed(DashAST t, Set<VariableSymbol> changed) {
+		switch (t.getToken().getType()) {
+		case DashLexer.VAR_DECL:
+			changed.add(DefUseIndex.declared(t));
+			break;
+		case DashLexer.ASSIGN:
+			changed.add(target((DashAST) t.getChild(0)));
+			break;
+		case DashLexer.INPUT:
+			for (int i = 0; i < t.getChildCount(); i++)
+				changed.add(target((DashAST) t.getChild(i)));
+			break;
+		case DashLexer.UNPACK:
+			for (int i = 0; i < t.getChildCount() - 1; i++)
+				changed.add(target((DashAST) t.getChild(i)));
+			break;
+		case DashLexer.CALL:
+			passed(t, changed);
+			break;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			changed((DashAST) t.getChild(i), changed);
+	}
+
+	// collects the variables passed to a call, which a procedure may change
+	private static void passed(DashAST call, Set<VariableSymbol> passed) {
+		for (int i = 0; i < call.getChildCount(); i++) {
+			DashAST args = (DashAST) call.getChild(i);
+			if (args.getToken().getType() == DashLexer.ELIST) {
+				for (int j = 0; j < args.getChildCount(); j++)
+					passed.add(target((DashAST) args.getChild(j)));
+			}
+		}
+	}
+
+	// replaces the variables of known value in t and folds it
+	private void expression(DashAST t, Map<VariableSymbol, String> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		// variables passed to calls are left alone, they may be changed
+		Set<VariableSymbol> passed = new HashSet<VariableSymbol>();
+		calls(t, passed);
+		values.keySet().removeAll(passed);
+
+		if (replace(t, values) && folding != null) {
+			changes += folding.optimize(t);
+		}
+	}
+
+	private static void calls(DashAST t, Set<VariableSymbol> passed) {
+		if (t.getToken().getType() == DashLexer.CALL) {
+			passed(t, passed);
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			calls((DashAST) t.getChild(i), passed);
+	}
+
+	private boolean replace(DashAST t, Map<VariableSymbol, String> values) {
+		boolean replaced = false;
+
+		if (t.getToken().getType() == DashLexer.ID && t.symbol instanceof VariableSymbol) {
+			String value = values.get(t.symbol);
+			if (value != null && propagation.replace(t, value)) {
+				debug("line " + t.getLine() + ": " + t.symbol.name + " is " + value);
+				index.removeUse(t);
+				changes++;
+				replaced = true;
+			}
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			replaced |= replace((DashAST) t.getChild(i), values);
+		return replaced;
+	}
+}
@@ -0,0 +1,246 @@
+package ab.dash.opt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.runtime.CommonToken;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.MatrixType;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
+import ab.dash.ast.VariableSymbol;
+import ab.dash.ast.VectorType;
+
+/** Computes the expressions a loop does not change before the loop.
+ *
+ *  An expression in a while, do-while or iterator loop is invariant when
+ *  it has no effects and reads variables nothing in the loop may change:
+ *  by assigning, declaring or reading into them, passing them to a
+ *  procedure or iterating over them. Such an expression is stored in a new
+ *  variable, declared before the loop, and replaced by a use of it. This
+ *  matters most for vectors and matrices, which are allocated again on
+ *  every iteration otherwise.
+ *
+ *  The loop may not run at all, so only the expressions that cannot fail
+ *  are moved: no index, user call, division by a variable or operation on
+ *  two vectors or matrices, which may not have the same size. Outer loops
+ *  are done first. **/
+public class LoopInvariantCodeMotion {
+	DefUseIndex index;
+	boolean debug_mode;
+
+	// occurrences replaced by the current run
+	private int changes;
+
+	public LoopInvariantCodeMotion(DefUseIndex index, boolean debug_mode) {
+		this.index = index;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Moves the invariant expressions of the loops in tree, returns the
+	 *  number of occurrences replaced */
+	public int optimize(DashAST tree) {
+		changes = 0;
+		walk(tree);
+		return changes;
+	}
+
+	private void walk(DashAST t) {
+		boolean block = t.getToken().getType() == DashLexer.BLOCK && t.scope != null;
+
+		for (int i = 0; i < t.getChildCount(); i++) {
+			DashAST child = (DashAST) t.getChild(i);
+			if (block && isLoop(child)) {
+				loop(t, child);
+				i = child.getChildIndex(); // after the new declarations
+			}
+			walk(child);
+		}
+	}
+
+	private static boolean isLoop(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.WHILE:
+		case DashLexer.DOWHILE:
+		case DashLexer.ITERATOR:
+			return true;
+		}
+		return false;
+	}
+
+	private void loop(DashAST block, DashAST loop) {
+		Set<VariableSymbol> written = new HashSet<VariableSymbol>();
+		CommonSubexpressionElimination.written(loop, written);
+		Map<String, VariableSymbol> hoisted = new HashMap<String, VariableSymbol>();
+
+		// the domains of an iterator are computed once already
+		int first = loop.getToken().getType() == DashLexer.ITERATOR ? loop.getChildCount() - 1 : 0;
+		for (int i = first; i < loop.getChildCount(); i++)
+			find((DashAST) loop.getChild(i), written, hoisted, block, loop);
+	}
+
+	// moves the largest invariant expressions in t before loop
+	private void find(DashAST t, Set<VariableSymbol> written, Map<String, VariableSymbol> hoisted,
+			DashAST block, DashAST loop) {
+		switch (t.getToken().getType()) {
+		case DashLexer.VAR_DECL:
+			if (DefUseIndex.initializer(t) != null) {
+				find(DefUseIndex.initializer(t), written, hoisted, block, loop);
+			}
+			return;
+
+		case DashLexer.ASSIGN: {
+			find((DashAST) t.getChild(1), written, hoisted, block, loop);
+
+			// the indices of the target, not the target itself
+			DashAST target = (DashAST) t.getChild(0).getChild(0);
+			int type = target.getToken().getType();
+			if (type == DashLexer.VECTOR_INDEX || type == DashLexer.MATRIX_INDEX) {
+				for (int i = 1; i < target.getChildCount(); i++)
+					find((DashAST) target.getChild(i), written, hoisted, block, loop);
+			}
+			return;
+		}
+
+		case DashLexer.INPUT:
+			return;
+
+		case DashLexer.UNPACK:
+			find((DashAST) t.getChild(t.getChildCount() - 1), written, hoisted, block, loop);
+			return;
+		}
+
+		if (isInvariant(t, written)) {
+			hoist(t, hoisted, block, loop);
+			return;
+		}
+
+		for (int i = 0; i < t.getChildCount(); i++)
+			find((DashAST) t.getChild(i), written, hoisted, block, loop);
+	}
+
+	private static boolean isInvariant(DashAST t, Set<VariableSymbol> written) {
+		if (!isMovable(t) || !isPure(t) || !Effects.isSafe(t) || CommonSubexpressionElimination.cost(t) < 2) {
+			return false;
+		}
+
+		// the literals are left to be made global constants
+		Set<VariableSymbol> reads = new HashSet<VariableSymbol>();
+		CommonSubexpressionElimination.reads(t, reads);
+		return !reads.isEmpty() && Collections.disjoint(reads, written);
+	}
+
+	// whether t is an operation whose value may be kept in a variable
+	private static boolean isMovable(DashAST t) {
+		switch (t.getToken().getType()) {
+		case DashLexer.EXPR:
+		case DashLexer.ELIST:
+		case DashLexer.ID:
+		case DashLexer.INTEGER:
+		case DashLexer.REAL:
+		case DashLexer.CHARACTER:
+		case DashLexer.True:
+		case DashLexer.False:
+		case DashLexer.DOT:
+			return false;
+		}
+
+		if (t.evalType == null || t.promoteToType != null) {
+			return false;
+		}
+		switch (t.evalType.getTypeIndex()) {
+		case SymbolTable.tBOOLEAN:
+		case SymbolTable.tCHARACTER:
+		case SymbolTable.tINTEGER:
+		case SymbolTable.tREAL:
+		case SymbolTable.tINTERVAL:
+		case SymbolTable.tVECTOR:
+		case SymbolTable.tMATRIX:
+			break;
+		default:
+			return false;
+		}
+
+		return !CommonSubexpressionElimination.isPassedByReference(t);
+	}
+
+	private static boolean isPure(DashAST t) {
+		if (!CommonSubexpressionElimination.isPure(t)) {
+			return false;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			if (!isPure((DashAST) t.getChild(i)))
+				return false;
+		return true;
+	}
+
+	// a type for the variable holding the value of t
+	private static Type type(DashAST t) {
+		// not tied to the size expression of some declaration
+		switch (t.evalType.getTypeIndex()) {
+		case SymbolTable.tVECTOR:
+			return new VectorType(((VectorType) t.evalType).elementType, 0);
+		case SymbolTable.tMATRIX:
+			return new MatrixType(((MatrixType) t.evalType).elementType, 0, 0);
+		}
+		return t.evalType;
+	}
+
+	// replaces t by a variable declared before loop
+	private void hoist(DashAST t, Map<String, VariableSymbol> hoisted, DashAST block, DashAST loop) {
+		String key = CommonSubexpressionElimination.key(t);
+		VariableSymbol s = hoisted.get(key);
+		boolean first = s == null;
+
+		if (first) {
+			s = new VariableSymbol(null, type(t), SymbolTable._const);
+			s.name = "__licm_" + s.id;
+			block.scope.define(s);
+			hoisted.put(key, s);
+			debug("line " + t.getLine() + ": " + t.toStringTree() + " is loop invariant");
+		}
+
+		DashAST use = new DashAST(new CommonToken(DashLexer.ID, s.name));
+		use.symbol = s;
+		use.evalType = t.evalType;
+		t.getParent().setChild(t.getChildIndex(), use);
+		index.add(use);
+		changes++;
+
+		if (!first) {
+			index.remove(t);
+			return;
+		}
+
+		DashAST id = new DashAST(new CommonToken(DashLexer.ID, s.name));
+		id.symbol = s;
+		s.def = id;
+
+		DashAST expr = new DashAST(new CommonToken(DashLexer.EXPR, "EXPR"));
+		expr.evalType = t.evalType;
+		expr.addChild(t);
+
+		DashAST decl = new DashAST(new CommonToken(DashLexer.VAR_DECL, "VAR_DECL"));
+		decl.addChild(new DashAST(new CommonToken(DashLexer.INFERRED, "INFERRED")));
+		decl.addChild(id);
+		decl.addChild(expr);
+
+		// insert the declaration before the loop
+		int i = loop.getChildIndex();
+		DashAST statements = new DashAST();
+		statements.addChild(decl);
+		statements.addChild(loop);
+		block.replaceChildren(i, i, statements);
+		index.add(decl);
+	}
+}
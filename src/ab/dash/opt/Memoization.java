@@ -0,0 +1,85 @@
+package ab.dash.opt;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.MethodSymbol;
+import ab.dash.ast.SymbolTable;
+import ab.dash.ast.Type;
+
+/** Marks the recursive functions worth keeping the results of.
+ *
+ *  Functions cannot have effects, so a call always has the result of the
+ *  previous call with the same arguments. A function calling itself more
+ *  than once makes the same calls again and again, exponentially many for
+ *  the usual recursions. Such a function on at most MAX_ARGUMENTS integer,
+ *  character or boolean arguments and returning a scalar is marked, and
+ *  LLVMIRGenerator keeps its results in a table of the runtime keyed on
+ *  its arguments. **/
+public class Memoization {
+	/** Most arguments of a memoized function */
+	public static final int MAX_ARGUMENTS = 4;
+
+	boolean debug_mode;
+
+	public Memoization(boolean debug_mode) {
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Marks the functions of tree to memoize, returns how many were */
+	public int optimize(DashAST tree) {
+		int marked = 0;
+
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			DashAST decl = (DashAST) tree.getChild(i);
+			if (decl.getToken().getType() == DashLexer.FUNCTION_DECL && isMemoizable(decl)) {
+				MethodSymbol method = (MethodSymbol) ((DashAST) decl.getChild(0)).symbol;
+				method.memoize = true;
+				debug("line " + decl.getLine() + ": memoizing " + method.getShortName());
+				marked++;
+			}
+		}
+
+		return marked;
+	}
+
+	static boolean isMemoizable(DashAST decl) {
+		DashAST id = (DashAST) decl.getChild(0);
+		if (!(id.symbol instanceof MethodSymbol) || !Effects.isScalar(id.symbol.type)) {
+			return false;
+		}
+
+		int args = 0;
+		for (int i = 1; i < decl.getChildCount() - 1; i++) {
+			DashAST arg = (DashAST) decl.getChild(i);
+			if (arg.getToken().getType() != DashLexer.ARG_DECL) {
+				return false;
+			}
+
+			// reals are not keys, equal reals may differ in their bits
+			Type type = ((DashAST) arg.getChild(1)).symbol.type;
+			if (!Effects.isScalar(type) || type.getTypeIndex() == SymbolTable.tREAL) {
+				return false;
+			}
+			args++;
+		}
+
+		return args > 0 && args <= MAX_ARGUMENTS
+				&& calls((DashAST) decl.getChild(decl.getChildCount() - 1), id.symbol) > 1;
+	}
+
+	// calls of method in t
+	private static int calls(DashAST t, Object method) {
+		int calls = 0;
+		if (t.getToken().getType() == DashLexer.CALL && ((DashAST) t.getChild(0)).symbol == method) {
+			calls++;
+		}
+		for (int i = 0; i < t.getChildCount(); i++)
+			calls += calls((DashAST) t.getChild(i), method);
+		return calls;
+	}
+}
@@ -1,7 +1,5 @@
 package ab.dash.opt;
 
-import java.util.TreeSet;
-
 import org.antlr.runtime.tree.CommonTreeNodeStream;
 
 import ab.dash.ast.DashAST;
@@ -13,18 +11,30 @@ public class Optimization {
 	CommonTreeNodeStream nodes;
 	boolean debug_mode;
 	
+	// declarations and uses of the variables, built by optimize()
+	DefUseIndex index;
 	
 	// Optimization Options
 	public enum Options {
 	    CONSTANT_FOLDING,
 	    CONSTANT_PROPAGATION,
-	    REMOVE_UNUSED_VARIABLES
+	    REMOVE_UNUSED_VARIABLES,
+	    DEAD_CODE_ELIMINATION,
+	    LOOP_INVARIANT_CODE_MOTION,
+	    COMMON_SUBEXPRESSION_ELIMINATION,
+	    INLINING,
+	    MEMOIZATION
 	}
 	
 	// States
 	boolean constant_folding;
 	boolean constant_propagation;
 	boolean remove_unused_variables;
+	boolean dead_code_elimination;
+	boolean loop_invariant_code_motion;
+	boolean common_subexpression_elimination;
+	boolean inlining;
+	boolean memoization;
 	
 	public Optimization(CommonTreeNodeStream nodes, DashAST tree, SymbolTable symtab) {
 		this.nodes = nodes;
@@ -35,6 +45,11 @@ public class Optimization {
 		this.constant_folding = true;
 		this.constant_propagation = true;
 		this.remove_unused_variables = true;
+		this.dead_code_elimination = true;
+		this.loop_invariant_code_motion = true;
+		this.common_subexpression_elimination = true;
+		this.inlining = true;
+		this.memoization = true;
 	}
 	
 	public Optimization(CommonTreeNodeStream nodes, DashAST tree, SymbolTable symtab, boolean debug_mode) {
@@ -53,9 +68,30 @@ public class Optimization {
 		case REMOVE_UNUSED_VARIABLES:
 			this.remove_unused_variables = on;
 			break;
+		case DEAD_CODE_ELIMINATION:
+			this.dead_code_elimination = on;
+			break;
+		case LOOP_INVARIANT_CODE_MOTION:
+			this.loop_invariant_code_motion = on;
+			break;
+		case COMMON_SUBEXPRESSION_ELIMINATION:
+			this.common_subexpression_elimination = on;
+			break;
+		case INLINING:
+			this.inlining = on;
+			break;
+		case MEMOIZATION:
+			this.memoization = on;
+			break;
 		}
 	}
 	
+	/** The def-use index the passes kept up to date, null before
+	 *  optimize() */
+	public DefUseIndex getIndex() {
+		return index;
+	}
+	
 	private void debug(String msg) {
     	if (debug_mode)
     		System.out.println(msg);
@@ -67,50 +103,62 @@ public class Optimization {
 		debug("Constant Folding: " + (constant_folding ? "On" : "Off"));
 		debug("Constant Propagation: " + (constant_propagation ? "On" : "Off"));
 		debug("Remove Unused Variables: " + (remove_unused_variables ? "On" : "Off"));
+		debug("Dead Code Elimination: " + (dead_code_elimination ? "On" : "Off"));
+		debug("Loop Invariant Code Motion: " + (loop_invariant_code_motion ? "On" : "Off"));
+		debug("Common Subexpression Elimination: " + (common_subexpression_elimination ? "On" : "Off"));
+		debug("Inlining: " + (inlining ? "On" : "Off"));
+		debug("Memoization: " + (memoization ? "On" : "Off"));
 		
-		boolean fixed_state = false;
+		// Inline the small methods first, for the rest to fold
+		if (inlining) {
+			new Inlining(debug_mode).optimize(tree);
+		}
 		
-		ConstantFolding opt1 = new ConstantFolding();
-		ConstantPropagation opt2 = new ConstantPropagation();
+		index = new DefUseIndex(tree);
+		WorklistOptimizer optimizer = new WorklistOptimizer(index, constant_folding,
+				constant_propagation, remove_unused_variables, debug_mode);
+		optimizer.optimize(tree);
 		
-		int iterations = 0;
-		String tree_before = tree.toStringTree();
+		// Remove the branches the constants decided, before their
+		// assignments get in the way of local constant propagation
+		DeadCodeElimination dead_code = new DeadCodeElimination(index, debug_mode);
+		int changes = 0;
+		if (dead_code_elimination) {
+			changes += dead_code.optimize(tree);
+		}
 		
-		// Loop until fixed state
-		while (!fixed_state) {
-			iterations++;
-			debug("Iteration: " + iterations);
-			
-			// Perform constant folding
-			if (constant_folding) {
-				nodes.reset();
-				opt1.optimize(tree);
+		// Propagate the constants of local variables, then remove the code
+		// that made dead
+		if (constant_propagation) {
+			LocalConstantPropagation locals = new LocalConstantPropagation(index,
+					constant_folding ? new ConstantFolding() : null, debug_mode);
+			int propagated = locals.optimize(tree);
+			if (propagated > 0 && dead_code_elimination) {
+				propagated += dead_code.optimize(tree);
 			}
-			
-			// Perform constant propagation
-			if (constant_propagation) {
-				nodes.reset();
-				opt2.optimize(tree);
-			}
-			
-			// Remove unused variables
-			if (remove_unused_variables) {
-				Ref opt3 = new Ref(nodes, debug_mode);
-				nodes.reset();
-				opt3.downup(tree);
-				
-				TreeSet<Integer> refs = opt3.getRefs();
-				
-				RemoveUnusedVariables opt4 = new RemoveUnusedVariables(refs, debug_mode);
-				nodes.reset();
-				opt4.optimize(tree);
-			}
-			
-			String tree_after = tree.toStringTree();
-			fixed_state = tree_before.equals(tree_after);
-			tree_before = tree_after;
+			changes += propagated;
+		}
+		
+		// Fold and remove what all that made constant or unused
+		if (changes > 0) {
+			optimizer.optimize(tree);
+		}
+		
+		// Compute what the loops do not change before them, then what is
+		// left repeated once, on the final expressions
+		if (loop_invariant_code_motion) {
+			new LoopInvariantCodeMotion(index, debug_mode).optimize(tree);
+		}
+		if (common_subexpression_elimination) {
+			new CommonSubexpressionElimination(index, debug_mode).optimize(tree);
+		}
+		
+		// Mark the recursions left for the generated code to remember
+		if (memoization) {
+			new Memoization(debug_mode).optimize(tree);
 		}
 		
-		debug(tree.toStringTree());
+		if (debug_mode)
+			debug(tree.toStringTree());
 	}
 }
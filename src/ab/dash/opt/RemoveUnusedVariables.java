@@ -1,57 +1,92 @@
 package ab.dash.opt;
 
-import java.util.TreeSet;
+import java.util.List;
 import ab.dash.DashLexer;
 import ab.dash.ast.*;
 
 public class RemoveUnusedVariables {
-	TreeSet<Integer> refs;
+	DefUseIndex index;
 	boolean debug_mode;
-	
-	public RemoveUnusedVariables(TreeSet<Integer> refs) {
-        this.refs = refs;
+
+	// declarations removed by the current run
+	private int changes;
+
+	public RemoveUnusedVariables(DefUseIndex index) {
+        this.index = index;
         this.debug_mode = false;
     }
-    
-    public RemoveUnusedVariables(TreeSet<Integer> refs, boolean debug) {
-        this.refs = refs;
+
+    public RemoveUnusedVariables(DefUseIndex index, boolean debug) {
+        this.index = index;
         this.debug_mode = debug;
     }
-    
+
     private void debug(String msg) {
     	if (debug_mode)
     		System.out.println(msg);
     }
-    
-    public void optimize(DashAST tree) {
+
+    /** Removes the unused declarations of tree, returns how many were
+     *  removed */
+    public int optimize(DashAST tree) {
+    	changes = 0;
 		exec(tree);
+		return changes;
 	}
-	
+
+    // whether the size of the declared vector or matrix is checked at run time
+    private static boolean isSized(DashAST decl) {
+    	DashAST type = (DashAST) decl.getChild(0);
+    	switch (type.getToken().getType()) {
+    	case DashLexer.VECTOR:
+    	case DashLexer.MATRIX:
+    		return type.getChildCount() > 1;
+    	}
+    	return false;
+    }
+
+    // whether decl is a statement of a list of them, which can go without it
+    private static boolean isRemovable(DashAST decl) {
+    	DashAST parent = (DashAST) decl.getParent();
+    	if (parent == null)
+    		return false;
+
+    	int type = parent.getToken().getType();
+    	return type == DashLexer.BLOCK || type == DashLexer.PROGRAM;
+    }
+
+    /** True if decl declares a variable that is never used, and evaluating
+     *  its initializer has no effects and cannot fail at run time */
+    public boolean isUnused(DashAST decl) {
+    	VariableSymbol s = DefUseIndex.declared(decl);
+    	DashAST init = DefUseIndex.initializer(decl);
+    	return s != null && !index.isUsed(s) && isRemovable(decl) && !isSized(decl)
+    			&& (init == null || !Effects.hasEffects(init) && Effects.isSafe(init));
+    }
+
+    /** Removes an unused declaration, returns the variables that lost their
+     *  last use with it */
+    public List<VariableSymbol> remove(DashAST decl) {
+    	DashAST id = DefUseIndex.declaredId(decl);
+		debug("line " + id.getLine() + ": unused " + id.getText());
+		debug("Removing unused variable " + id.getText() + " : index " + decl.getChildIndex());
+
+		decl.getParent().deleteChild(decl.getChildIndex());
+		changes++;
+		return index.remove(decl);
+    }
+
 	protected void exec(DashAST t) {
-		switch (t.getToken().getType()) {
-		case DashLexer.VAR_DECL: {
-			DashAST ID = (DashAST) t.getChild(0);
-			if (ID != null) {
-				if(ID.symbol != null) {
-					if (ID.symbol instanceof VariableSymbol) {
-						VariableSymbol s = (VariableSymbol)ID.symbol;
-						if (!refs.contains(new Integer(s.id))) {
-							debug("line " + ID.getLine() + ": unused " + ID.getText());
-							int index = t.getChildIndex();
-							DashAST parent = (DashAST) t.getParent();
-							if (parent != null) {
-								debug("Removing unused variable " + ID.getText() + " : index " + index);
-								parent.deleteChild(index);
-							}
-						}
-					}
-				}
-			}
-		}
-		default: {
-			for (int i = 0; i < t.getChildCount(); i++)
-				exec((DashAST) t.getChild(i));
+		if (t.getToken().getType() == DashLexer.VAR_DECL && isUnused(t)) {
+			remove(t);
+			return;
 		}
+
+		for (int i = 0; i < t.getChildCount(); i++) {
+			DashAST child = (DashAST) t.getChild(i);
+			exec(child);
+			if (t.getChild(i) != child)
+				i--; // the child was removed
 		}
 	}
 }
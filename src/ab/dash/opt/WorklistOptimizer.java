@@ -0,0 +1,132 @@
+package ab.dash.opt;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+import ab.dash.DashLexer;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.VariableSymbol;
+
+/** Folds constants, propagates them and removes unused variables, visiting
+ *  only the nodes a change can affect.
+ *
+ *  Every node is visited once to start with, children first. After that
+ *  only queued nodes are visited again: a folded expression or a replaced
+ *  identifier queues its parent, a declaration that now has a constant
+ *  value queues the uses of its variable, and a variable that lost its last
+ *  use queues its declaration. **/
+public class WorklistOptimizer {
+	DefUseIndex index;
+	ConstantFolding folding;
+	ConstantPropagation propagation;
+	RemoveUnusedVariables removal;
+	boolean debug_mode;
+
+	private LinkedList<DashAST> worklist = new LinkedList<DashAST>();
+	private Set<DashAST> queued = Collections.newSetFromMap(new IdentityHashMap<DashAST, Boolean>());
+	private Set<DashAST> removed = Collections.newSetFromMap(new IdentityHashMap<DashAST, Boolean>());
+
+	private int visits;
+	private int changes;
+
+	public WorklistOptimizer(DefUseIndex index, boolean constant_folding, boolean constant_propagation,
+			boolean remove_unused_variables, boolean debug_mode) {
+		this.index = index;
+		this.folding = constant_folding ? new ConstantFolding() : null;
+		this.propagation = constant_propagation ? new ConstantPropagation() : null;
+		this.removal = remove_unused_variables ? new RemoveUnusedVariables(index, debug_mode) : null;
+		this.debug_mode = debug_mode;
+	}
+
+	private void debug(String msg) {
+		if (debug_mode)
+			System.out.println(msg);
+	}
+
+	/** Optimizes tree, returns the number of changes made */
+	public int optimize(DashAST tree) {
+		sweep(tree);
+
+		while (!worklist.isEmpty()) {
+			DashAST t = worklist.removeFirst();
+			queued.remove(t);
+			if (!removed.contains(t)) {
+				visits++;
+				visit(t);
+			}
+		}
+
+		debug("Visited " + visits + " nodes, " + changes + " changes");
+		return changes;
+	}
+
+	// visits every node once, children first
+	private void sweep(DashAST t) {
+		for (int i = 0; i < t.getChildCount(); i++) {
+			DashAST child = (DashAST) t.getChild(i);
+			sweep(child);
+			if (t.getChild(i) != child) {
+				i--; // the child was removed
+			}
+		}
+
+		visits++;
+		visit(t);
+	}
+
+	private void queue(DashAST t) {
+		if (t != null && queued.add(t)) {
+			worklist.addLast(t);
+		}
+	}
+
+	private void visit(DashAST t) {
+		DashAST parent = (DashAST) t.getParent();
+
+		switch (t.getToken().getType()) {
+		case DashLexer.ID:
+			if (propagation != null && t.symbol instanceof VariableSymbol && propagation.replace(t)) {
+				changes++;
+				if (index.removeUse(t)) {
+					queue(index.declaration((VariableSymbol) t.symbol));
+				}
+				queue(parent);
+			}
+			break;
+		case DashLexer.EXPR:
+			// a declaration with a constant value may be propagated
+			if (parent != null && parent.getToken().getType() == DashLexer.VAR_DECL) {
+				queue(parent);
+			}
+			break;
+		case DashLexer.VAR_DECL: {
+			if (removal != null && removal.isUnused(t)) {
+				changes++;
+				for (VariableSymbol s : removal.remove(t)) {
+					queue(index.declaration(s));
+				}
+				mark(t);
+			} else if (propagation != null && propagation.learn(t)) {
+				for (DashAST id : index.uses(DefUseIndex.declared(t))) {
+					queue(id);
+				}
+			}
+			break;
+		}
+		default:
+			if (folding != null && folding.fold(t)) {
+				changes++;
+				queue(parent);
+			}
+		}
+	}
+
+	// marks the nodes of a removed subtree, they are not visited any more
+	private void mark(DashAST t) {
+		removed.add(t);
+		for (int i = 0; i < t.getChildCount(); i++)
+			mark((DashAST) t.getChild(i));
+	}
+}
@@ -4,7 +4,6 @@
 package ab.dash.testing;
 
 import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -15,19 +14,13 @@ import org.junit.rules.ExpectedException;
 
 public class BaseTest {
 
-    protected PrintStream out_backup;
-    protected PrintStream err_backup;
     protected ByteArrayOutputStream outErrIntercept;
     public Set<String> base_globals;
 
     @Before
     public void setUp() throws Exception {
-        out_backup = System.out;
-        err_backup = System.err;
-        
         outErrIntercept = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(outErrIntercept));
-        System.setErr(new PrintStream(outErrIntercept));
+        CapturedOutput.start(outErrIntercept);
         
         base_globals = new LinkedHashSet<String>();
         base_globals.add("boolean");
@@ -53,8 +46,7 @@ public class BaseTest {
 
     @After
     public void tearDown() throws Exception {
-        System.setOut(out_backup);
-        System.setErr(err_backup);
+        CapturedOutput.stop();
     }
     
     @Rule
@@ -0,0 +1,64 @@
+/** Per thread capture of System.out and System.err, so tests running
+ *  concurrently each see only their own output. Once installed, output
+ *  written by a thread goes to the stream that thread is capturing into,
+ *  or to the original console stream when it is not capturing. **/
+
+package ab.dash.testing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class CapturedOutput {
+    private static final ThreadLocal<OutputStream> capture = new ThreadLocal<OutputStream>();
+    private static PrintStream consoleOut;
+    private static PrintStream consoleErr;
+
+    private static class Dispatcher extends OutputStream {
+        private final OutputStream console;
+
+        Dispatcher(OutputStream console) {
+            this.console = console;
+        }
+
+        private OutputStream target() {
+            OutputStream target = capture.get();
+            return target != null ? target : console;
+        }
+
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+    // replaces System.out/System.err with dispatching streams, once
+    private static synchronized void install() {
+        if (consoleOut == null) {
+            consoleOut = System.out;
+            consoleErr = System.err;
+            System.setOut(new PrintStream(new Dispatcher(consoleOut), true));
+            System.setErr(new PrintStream(new Dispatcher(consoleErr), true));
+        }
+    }
+
+    /** Sends the calling thread's stdout and stderr to intercept */
+    public static void start(OutputStream intercept) {
+        install();
+        capture.set(intercept);
+    }
+
+    /** Sends the calling thread's output back to the console */
+    public static void stop() {
+        System.out.flush();
+        System.err.flush();
+        capture.remove();
+    }
+}
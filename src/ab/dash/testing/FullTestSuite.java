@@ -14,6 +14,14 @@ import org.junit.runners.Suite;
    TestInvalidLLVM.class,
    TestRuntimeErrors.class,
    TestMatrixRuntimeErrors.class,
+   TestCompileServer.class,
+   TestBatchCompiler.class,
+   TestLLVMTemplates.class,
+   TestPassTimer.class,
+   TestToolchain.class,
+   TestBuildCache.class,
+   TestSyntheticProgram.class,
+   TestOptimization.class,
 })
 
 public class FullTestSuite {   
@@ -0,0 +1,39 @@
+/** JUnit runner that runs the test methods of a class concurrently on a
+ *  fixed pool of threads, one per processor unless the dash.test.threads
+ *  system property says otherwise. Tests must not share mutable state;
+ *  BaseTest captures each test's output separately. **/
+
+package ab.dash.testing;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+public class ParallelRunner extends BlockJUnit4ClassRunner {
+
+    public ParallelRunner(Class<?> klass) throws InitializationError {
+        super(klass);
+
+        final int threads = Integer.getInteger("dash.test.threads", Runtime.getRuntime().availableProcessors());
+        setScheduler(new RunnerScheduler() {
+            private ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+
+            public void schedule(Runnable childStatement) {
+                pool.submit(childStatement);
+            }
+
+            public void finished() {
+                pool.shutdown();
+                try {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,59 @@
+/** Batch compiler tests. Compiling the whole TestPrograms corpus
+ *  in parallel must produce exactly the LLVM IR of a sequential run. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ab.dash.BatchCompiler;
+import ab.dash.CompileOutput;
+import ab.dash.Runner;
+
+public class TestBatchCompiler extends BaseTest {
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        List<File> programs = BatchCompiler.findPrograms(new File("TestPrograms"));
+
+        Map<File, String> sequential = new BatchCompiler(1).compile(programs);
+        Map<File, String> parallel = new BatchCompiler(4).compile(programs);
+
+        assertEquals(programs.size(), parallel.size());
+        for (File program : programs) {
+            assertEquals(program.getPath(), sequential.get(program), parallel.get(program));
+        }
+    }
+
+    @Test
+    public void matchesSingleCompile() throws Exception {
+        File program = new File("TestPrograms/05Tuples/tuples.ds");
+
+        CompileOutput single = Runner.llvmCompile(new String[] {program.getPath()});
+        Map<File, String> batch = new BatchCompiler(2).compile(BatchCompiler.findPrograms(program.getParentFile()));
+
+        assertEquals(single.llvm, batch.get(program));
+    }
+
+    @Test
+    public void keepsEqualFileNamesApart() throws Exception {
+        File input = File.createTempFile("dash-batch", "");
+        input.delete();
+        File output = new File(input, "out");
+        for (String dir : new String[] {"a", "b"}) {
+            Runner.createFile(new File(input, dir + "/main.ds").getPath(),
+                    "procedure main() returns integer {\n\treturn 0;\n}\n");
+        }
+
+        List<File> programs = BatchCompiler.findPrograms(input);
+        assertEquals(0, new BatchCompiler(2).compileTo(programs, input, output));
+        assertTrue(new File(output, "a/main.ds.ll").isFile());
+        assertTrue(new File(output, "b/main.ds.ll").isFile());
+    }
+}
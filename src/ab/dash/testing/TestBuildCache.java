@@ -0,0 +1,116 @@
+/** Build cache tests. A program that has not changed is run
+ *  from the cache and prints exactly what a fresh build prints. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ab.dash.BuildCache;
+import ab.dash.Runner;
+import ab.dash.Toolchain;
+
+public class TestBuildCache extends BaseTest {
+    private static final String PROGRAM = "TestPrograms/05Tuples/tuples.ds";
+
+    @BeforeClass
+    public static void oneTimeSetUp() throws Exception {
+        Runtime.getRuntime().exec(new String[] {"/bin/sh", "-c", "make runtime > /dev/null"}).waitFor();
+    }
+
+    private File newCacheDir() {
+        return new File("LLVMIROutput/cache-" + System.nanoTime());
+    }
+
+    private static String read(File file) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void secondRunIsAHit() throws Exception {
+        BuildCache cache = new BuildCache(newCacheDir());
+
+        Runner.llvmMain(new String[] {PROGRAM}, new Toolchain(), cache);
+        String fresh = outErrIntercept.toString();
+        outErrIntercept.reset();
+
+        Runner.llvmMain(new String[] {PROGRAM}, new Toolchain(), cache);
+        String cached = outErrIntercept.toString();
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(fresh, cached);
+    }
+
+    @Test
+    public void keyDependsOnSourceAndOptLevel() throws Exception {
+        BuildCache cache = new BuildCache(newCacheDir());
+        Toolchain toolchain = new Toolchain();
+        Toolchain optimizing = new Toolchain();
+        optimizing.setOptLevel(2);
+
+        String key = cache.key(new File(PROGRAM), toolchain);
+
+        assertEquals(key, cache.key(new File(PROGRAM), toolchain));
+        assertFalse(key.equals(cache.key(new File("TestPrograms/09Typedef/typedef.ds"), toolchain)));
+        assertFalse(key.equals(cache.key(new File(PROGRAM), optimizing)));
+    }
+
+    @Test
+    public void failedBuildsAreNotCached() throws Exception {
+        File dir = newCacheDir();
+        BuildCache cache = new BuildCache(dir);
+
+        Runner.llvmMain(new String[] {"TestPrograms/39ForwardDeclarationError/forwardDeclarationError.ds"},
+                new Toolchain(), cache);
+
+        assertEquals(1, cache.getMisses());
+        assertTrue(dir.list() == null || dir.list().length == 0);
+    }
+
+    @Test
+    public void hitRestoresTheIR() throws Exception {
+        BuildCache cache = new BuildCache(newCacheDir());
+        File llvm = new File("LLVMIROutput/" + PROGRAM + ".ll");
+
+        Runner.llvmMain(new String[] {PROGRAM}, new Toolchain(), cache);
+        String fresh = read(llvm);
+        llvm.delete();
+
+        Runner.llvmMain(new String[] {PROGRAM}, new Toolchain(), cache);
+
+        assertEquals(1, cache.getHits());
+        assertEquals(fresh, read(llvm));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreDropped() throws Exception {
+        File dir = newCacheDir();
+        BuildCache cache = new BuildCache(dir, 1);
+
+        Runner.llvmMain(new String[] {PROGRAM}, new Toolchain(), cache);
+        Runner.llvmMain(new String[] {"TestPrograms/09Typedef/typedef.ds"}, new Toolchain(), cache);
+
+        assertEquals(1, dir.list().length);
+        assertTrue(cache.lookup(cache.key(new File("TestPrograms/09Typedef/typedef.ds"), new Toolchain())) != null);
+    }
+}
@@ -0,0 +1,46 @@
+/** Compile server tests. Checks that one server instance can
+ *  compile several programs and reports failures per request. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import ab.dash.CompileServer;
+
+public class TestCompileServer extends BaseTest {
+
+    @Test
+    public void compilesManyPrograms() {
+        CompileServer server = new CompileServer();
+
+        assertEquals("ok LLVMIROutput/simpleMain.ds.ll",
+                server.handle("TestPrograms/01SimpleMain/simpleMain.ds"));
+        assertEquals("ok LLVMIROutput/declareGlobals.ds.ll",
+                server.handle("TestPrograms/03DeclareGlobals/declareGlobals.ds"));
+        assertEquals(2, server.getCompiledCount());
+        assertTrue(new File("LLVMIROutput/declareGlobals.ds.ll").exists());
+    }
+
+    @Test
+    public void explicitOutputFile() {
+        CompileServer server = new CompileServer();
+
+        assertEquals("ok LLVMIROutput/server/typedef.ll",
+                server.handle("TestPrograms/09Typedef/typedef.ds LLVMIROutput/server/typedef.ll"));
+        assertTrue(new File("LLVMIROutput/server/typedef.ll").exists());
+    }
+
+    @Test
+    public void reportsInvalidProgram() {
+        CompileServer server = new CompileServer();
+
+        assertEquals("error TestPrograms/doesNotExist.ds: Invalid program filename: TestPrograms/doesNotExist.ds",
+                server.handle("TestPrograms/doesNotExist.ds"));
+        assertEquals(0, server.getCompiledCount());
+    }
+}
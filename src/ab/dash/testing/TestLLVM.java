@@ -11,12 +11,14 @@ import java.io.IOException;
 import org.antlr.runtime.RecognitionException;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 
 import ab.dash.Runner;
 import ab.dash.exceptions.LexerException;
 import ab.dash.exceptions.ParserException;
 import ab.dash.exceptions.SymbolTableException;
 
+@RunWith(ParallelRunner.class)
 public class TestLLVM extends BaseTest {
 	
 	@BeforeClass
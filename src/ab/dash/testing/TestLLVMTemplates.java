@@ -0,0 +1,35 @@
+/** LLVM template tests. The shared template group is parsed once
+ *  and can not be changed by a compilation. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.antlr.stringtemplate.StringTemplate;
+import org.junit.Test;
+
+import ab.dash.LLVMTemplates;
+
+public class TestLLVMTemplates extends BaseTest {
+
+    @Test
+    public void sharedGroupIsLoadedOnce() {
+        assertSame(LLVMTemplates.get(), LLVMTemplates.get());
+        assertNotSame(LLVMTemplates.get(), LLVMTemplates.load());
+        assertTrue(LLVMTemplates.get().isDefined("program"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedGroupIsReadOnly() {
+        LLVMTemplates.get().defineTemplate("program", "");
+    }
+
+    @Test
+    public void instancesAreIndependent() {
+        StringTemplate first = LLVMTemplates.get().getInstanceOf("program");
+        StringTemplate second = LLVMTemplates.get().getInstanceOf("program");
+        assertNotSame(first, second);
+    }
+}
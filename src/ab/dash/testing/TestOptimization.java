@@ -0,0 +1,222 @@
+/** Optimization tests. Compiles the programs in TestOptimization and
+ *  checks what the optimizer left of their trees. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ab.dash.CompileOutput;
+import ab.dash.Runner;
+import ab.dash.ast.DashAST;
+import ab.dash.ast.VariableSymbol;
+import ab.dash.opt.DefUseIndex;
+
+public class TestOptimization extends BaseTest {
+
+    private static DashAST optimize(String program) throws Exception {
+        CompileOutput output = Runner.llvmCompile(new String[] {"TestOptimization/" + program});
+        assertNotNull(output);
+        return output.tree;
+    }
+
+    @Test
+    public void propagatesAndRemovesConstants() throws Exception {
+        String tree = optimize("TestDefUse/constants.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 7<integer>))"));
+        assertFalse(tree, tree.contains("VAR_DECL"));
+    }
+
+    @Test
+    public void keepsEffects() throws Exception {
+        String tree = optimize("TestDefUse/effects.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(VAR_DECL integer unused<integer> (EXPR<integer> (CALL<integer> p<integer> ELIST)))"));
+        assertTrue(tree, tree.contains("(/<integer> x<integer> 0<integer>)"));
+    }
+
+    @Test
+    public void indexesDeclarationsAndUses() throws Exception {
+        DashAST tree = optimize("TestDefUse/effects.ds");
+        DefUseIndex index = new DefUseIndex(tree);
+
+        DashAST block = (DashAST) tree.getChild(1).getChild(1);
+        DashAST decl = (DashAST) block.getChild(1);
+        VariableSymbol x = DefUseIndex.declared(decl);
+        assertEquals("x", x.name);
+        assertEquals(decl, index.declaration(x));
+        assertEquals(1, index.uses(x).size());
+
+        block.getParent().deleteChild(block.getChildIndex());
+        assertEquals(Arrays.asList(x), index.remove(block));
+        assertFalse(index.isUsed(x));
+        assertNull(index.declaration(x));
+    }
+
+    @Test
+    public void propagatesLocals() throws Exception {
+        String tree = optimize("TestLocalPropagation/locals.ds").toStringTree();
+
+        // b + 1, then a after it was assigned 10
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 7<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 10<integer>))"));
+        // the branches of the if disagree on c but not on d
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> c<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 1<integer>))"));
+        // the loop changes sum and f, not e
+        assertTrue(tree, tree.contains("(<<boolean> sum<integer> 10<integer>)"));
+        assertTrue(tree, tree.contains("(+<integer> sum<integer> 5<integer>)"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 8<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> f<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 5<integer>))"));
+        // g may be changed by the call
+        assertTrue(tree, tree.contains("(ELIST (EXPR<integer> g<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> g<integer>))"));
+        // b and e are no longer used
+        assertFalse(tree, tree.contains("VAR_DECL integer b<integer>"));
+        assertFalse(tree, tree.contains("VAR_DECL integer e<integer>"));
+    }
+
+    @Test
+    public void foldsScalars() throws Exception {
+        String tree = optimize("TestFolding/scalars.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(PRINT (EXPR<real> 2.75<real>))"));
+        // 7 / 2 is promoted, so it is divided as reals
+        assertTrue(tree, tree.contains("(PRINT (EXPR<real> 4.0<real>))"));
+        assertTrue(tree, tree.contains("(/<real> 1.0<real> 0.0<real>)"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<boolean> true<boolean>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<boolean> false<boolean>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> -2<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<character> 'a'<character>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 1<integer>))"));
+        // the quotient does not fit in an integer
+        assertTrue(tree, tree.contains("(/<integer> -2147483648<integer> -1<integer>)"));
+    }
+
+    @Test
+    public void foldsAggregates() throws Exception {
+        String tree = optimize("TestFolding/aggregates.ds").toStringTree();
+
+        // the folded literals end up in globals
+        assertTrue(tree, tree.contains("(EXPR<integer[]> (VECTOR_LIST<integer[]> "
+                + "(EXPR<integer> 5<integer>) (EXPR<integer> 7<integer>) (EXPR<integer> 9<integer>)))"));
+        assertTrue(tree, tree.contains("(EXPR<integer[]> (VECTOR_LIST<integer[]> "
+                + "(EXPR<integer> 1<integer>) (EXPR<integer> 5<integer>) (EXPR<integer> 9<integer>)))"));
+        assertTrue(tree, tree.contains("(EXPR<interval> (..<interval> -7<integer> -3<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 100<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 3<integer>))"));
+        assertTrue(tree, tree.contains("(VECTOR_LIST<integer[]> (EXPR<integer> 6<integer>) (EXPR<integer> 8<integer>))"));
+        // division by zero is left to fail at run time
+        assertTrue(tree, tree.contains("(/<integer[]> __constant_"));
+    }
+
+    @Test
+    public void removesDeadCode() throws Exception {
+        String tree = optimize("TestDeadCode/dead.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(PRINT (EXPR<character> 'b'<character>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<character> 'c'<character>))"));
+        assertFalse(tree, tree.contains("'a'"));
+        assertFalse(tree, tree.contains("'d'"));
+        assertFalse(tree, tree.contains("if"));
+        assertFalse(tree, tree.contains("DOWHILE"));
+        // y and z were only used by the removed code, x by the if
+        assertFalse(tree, tree.contains("VAR_DECL"));
+        assertTrue(tree, tree.contains("(WHILE (EXPR<boolean> true<boolean>) (BLOCK break))"));
+    }
+
+    @Test
+    public void hoistsLiterals() throws Exception {
+        String tree = optimize("TestLiterals/literals.ds").toStringTree();
+
+        // equal literals share a global, built before the methods run
+        assertTrue(tree, tree.startsWith("(PROGRAM (VAR_DECL INFERRED __constant_"));
+        // [1, 2], 1..3, [3, 4] and 1..3 as a vector
+        assertEquals(tree, 4, tree.split("VAR_DECL INFERRED __constant_").length - 1);
+        assertTrue(tree, tree.contains("(+<integer[]> v<integer[]> __constant_"));
+        assertTrue(tree, tree.contains("(DOMAIN (EXPR<interval> __constant_"));
+        assertTrue(tree, tree.contains("(**<integer> v<integer[]> __constant_"));
+        // the interval is not turned into a vector on every iteration
+        assertTrue(tree, tree.matches(".*\\(\\|\\|<integer\\[\\]> v<integer\\[\\]> __constant_\\d+<integer\\[\\]>\\).*"));
+        // the procedure may change its argument, the caller the result
+        assertTrue(tree, tree.contains("(ELIST (EXPR<integer[]> (VECTOR_LIST<integer[]>"));
+        assertTrue(tree, tree.contains("(return<integer[]> (EXPR<integer[]> (VECTOR_LIST<integer[]>"));
+    }
+
+    @Test
+    public void reusesCommonSubexpressions() throws Exception {
+        String tree = optimize("TestCommonSubexpressions/cse.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(EXPR<integer> (*<integer> (VECTOR_INDEX<integer> v<integer[]> "
+                + "(EXPR<integer> 2<integer>)) (VECTOR_INDEX<integer> w<integer[]> (EXPR<integer> 2<integer>))))"));
+        // v[2] * w[2], and length(v) once moved out of the loop
+        assertEquals(tree, 2, tree.split("VAR_DECL INFERRED __cse_").length - 1);
+        assertTrue(tree, tree.contains("(+<integer> __cse_"));
+        // k may be changed by the procedure, i is assigned
+        assertEquals(tree, 2, tree.split("\\(\\+<integer> \\(\\*<integer> n<integer> k<integer>\\) 1<integer>\\)").length - 1);
+        assertTrue(tree, tree.contains("(VECTOR_INDEX<integer> v<integer[]> (EXPR<integer> 3<integer>))"));
+        // j is not declared before the statement of the generator
+        assertEquals(tree, 2, tree.split("\\(VECTOR_INDEX<integer> v<integer\\[\\]> \\(EXPR<integer> j<integer>\\)\\)").length - 1);
+    }
+
+    @Test
+    public void hoistsLoopInvariants() throws Exception {
+        String tree = optimize("TestLoopInvariants/licm.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(VAR_DECL INFERRED __licm_"));
+        assertTrue(tree, tree.contains("(EXPR<integer[]> (+<integer[]> (*<integer[]> v<integer[]> 2<integer>) 1<integer>))"));
+        assertTrue(tree, tree.contains("(EXPR<integer> (*<integer> (CALL<integer> rows<integer>"));
+        assertTrue(tree, tree.contains("(*<integer> i<integer> __licm_"));
+        // an index or division may fail when the loop would not run
+        assertTrue(tree, tree.contains("(*<integer> (VECTOR_INDEX<integer> v<integer[]> (EXPR<integer> 2<integer>)) 3<integer>)"));
+        assertTrue(tree, tree.contains("(/<integer> n<integer> k<integer>)"));
+        // the procedure may change v
+        assertTrue(tree, tree.contains("(*<integer> (CALL<integer> length<integer> (ELIST (EXPR<integer[]> v<integer[]>))) 2<integer>)"));
+        assertEquals(tree, 3, tree.split("VAR_DECL INFERRED __licm_").length - 1);
+    }
+
+    @Test
+    public void inlinesSmallMethods() throws Exception {
+        String tree = optimize("TestInlining/inline.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(+<integer> (*<integer> s<integer> s<integer>) (+<integer> k<integer> 1<integer>))"));
+        assertTrue(tree, tree.contains("(= (EXPR<integer> s<integer>) (EXPR<integer> (+<integer> s<integer> k<integer>)))"));
+        // k + 1 would be computed twice, fact is recursive and show declares twice
+        assertTrue(tree, tree.contains("(CALL<integer> sq<integer> (ELIST (EXPR<integer> (+<integer> k<integer> 1<integer>))))"));
+        assertTrue(tree, tree.contains("(CALL<integer> fact<integer> (ELIST (EXPR<integer> k<integer>)))"));
+        assertTrue(tree, tree.contains("(CALL<void> show<void>"));
+        assertFalse(tree, tree.contains("CALL<void> bump<void>"));
+    }
+
+    @Test
+    public void runsFunctionsOnConstants() throws Exception {
+        String tree = optimize("TestInterpreter/interpret.ds").toStringTree();
+
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 6765<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<integer> 37<integer>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<real> 2.5<real>))"));
+        assertTrue(tree, tree.contains("(PRINT (EXPR<character> 'A'<character>))"));
+        // division by zero fails at run time, spin runs out of steps
+        assertTrue(tree, tree.contains("(/<integer> 100<integer> 0<integer>)"));
+        assertTrue(tree, tree.contains("(CALL<integer> spin<integer> (ELIST (EXPR<integer> 1<integer>)))"));
+        assertTrue(tree, tree.contains("(CALL<integer> fib<integer> (ELIST (EXPR<integer> k<integer>)))"));
+    }
+
+    @Test
+    public void memoizesRecursiveFunctions() throws Exception {
+        CompileOutput output = Runner.llvmCompile(new String[] {"TestOptimization/TestMemoization/memo.ds"});
+        assertNotNull(output);
+
+        // fib and paths call themselves twice, odd once, scale takes a real
+        assertEquals(output.llvm, 2, output.llvm.split("call i1 @memo_get").length - 1);
+    }
+}
@@ -0,0 +1,69 @@
+/** Pass timing tests. Every traversal of the compiler passes shows
+ *  up in the report, in the order they run. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ab.dash.LLVMTemplates;
+import ab.dash.PassTimer;
+import ab.dash.Runner;
+
+public class TestPassTimer extends BaseTest {
+
+    private static final List<String> PASSES = Arrays.asList("LexerParser", "ConvertStrings", "Def",
+            "AddNullToUninitialized", "Types",
+            "TupleConvertNullAndIdentity+TuplePromotion+DefineTupleTypes+ConvertNullAndIdentity+MethodCheck+CleanAST",
+            "Optimization", "LiteralsToGlobalConstants", "LLVMIRGenerator");
+
+    private static List<String> names(PassTimer timer) {
+        List<String> names = new ArrayList<String>();
+        for (PassTimer.Pass pass : timer.getPasses()) {
+            names.add(pass.name);
+        }
+        return names;
+    }
+
+    @Test
+    public void recordsEveryPass() throws Exception {
+        PassTimer timer = new PassTimer();
+        assertNotNull(Runner.llvmCompile(new String[] {"TestPrograms/05Tuples/tuples.ds"}, LLVMTemplates.get(), timer));
+
+        assertEquals(PASSES, names(timer));
+        for (PassTimer.Pass pass : timer.getPasses()) {
+            assertTrue(pass.name, pass.wallNanos >= 0);
+        }
+
+        String json = timer.toJSON();
+        assertTrue(json.contains("{\"name\": \"LLVMIRGenerator\", \"wallNanos\": "));
+        assertTrue(json.contains("\"total\": {\"name\": \"total\""));
+        assertTrue(timer.toTable().contains("LLVMIRGenerator"));
+    }
+
+    @Test
+    public void stopsAtFailingPass() throws Exception {
+        PassTimer timer = new PassTimer();
+        Runner.llvmCompile(new String[] {"TestPrograms/39ForwardDeclarationError/forwardDeclarationError.ds"},
+                LLVMTemplates.get(), timer);
+
+        List<String> names = names(timer);
+        assertTrue(names.size() < PASSES.size());
+        assertEquals(PASSES.subList(0, names.size()), names);
+    }
+
+    @Test
+    public void disabledRecordsNothing() throws Exception {
+        PassTimer timer = PassTimer.disabled();
+        Runner.llvmCompile(new String[] {"TestPrograms/05Tuples/tuples.ds"}, LLVMTemplates.get(), timer);
+
+        assertTrue(timer.getPasses().isEmpty());
+    }
+}
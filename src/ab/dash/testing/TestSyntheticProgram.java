@@ -0,0 +1,108 @@
+/** Synthetic benchmark program tests. Generated programs of any
+ *  size must compile, or the compiler benchmarks measure nothing. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.tree.Tree;
+import org.junit.Test;
+
+import ab.dash.ChunkedFileStream;
+import ab.dash.DashLexer;
+import ab.dash.DashParser;
+import ab.dash.Runner;
+import ab.dash.StreamingTokenStream;
+import ab.dash.ast.DashAST;
+import ab.dash.bench.ParserBenchmark;
+import ab.dash.bench.SyntheticProgram;
+
+public class TestSyntheticProgram extends BaseTest {
+
+    @Test
+    public void generatedProgramCompiles() throws Exception {
+        File program = SyntheticProgram.write(500);
+
+        assertNotNull(Runner.llvmCompile(new String[] {program.getPath()}));
+        assertTrue(outErrIntercept.toString().isEmpty());
+    }
+
+    @Test
+    public void largeProgramParses() throws Exception {
+        assertEquals(0, ParserBenchmark.parse(SyntheticProgram.generate(20000)));
+    }
+
+    @Test
+    public void streamedTextMatchesBufferedText() throws Exception {
+        File program = SyntheticProgram.write(20000);
+
+        DashLexer lexer = new DashLexer(new ANTLRStringStream(SyntheticProgram.generate(20000)));
+        CommonTokenStream buffered = new CommonTokenStream(lexer);
+        DashParser parser = new DashParser(buffered);
+        parser.setTreeAdaptor(DashAST.dashAdaptor);
+        Tree expected = (Tree) parser.program().getTree();
+
+        ChunkedFileStream input = new ChunkedFileStream(program.getPath());
+        StreamingTokenStream streamed = new StreamingTokenStream(new DashLexer(input), input);
+        parser = new DashParser(streamed);
+        parser.setTreeAdaptor(DashAST.dashAdaptor);
+        Tree actual = (Tree) parser.program().getTree();
+
+        assertEquals(buffered.toString(expected.getTokenStartIndex(), expected.getTokenStopIndex()),
+                streamed.toString(actual));
+
+        // the last function was parsed long after the first tokens were dropped
+        Tree last = expected.getChild(expected.getChildCount() - 2);
+        assertEquals(buffered.toString(last.getTokenStartIndex(), last.getTokenStopIndex()),
+                streamed.toString(actual.getChild(actual.getChildCount() - 2)));
+    }
+
+    @Test
+    public void droppedCharactersPastTheEndAreEOF() throws Exception {
+        File program = SyntheticProgram.write(20000);
+
+        // hand out the text as the token stream does, so the chunks are dropped
+        ChunkedFileStream input = new ChunkedFileStream(program.getPath());
+        while (input.LA(1) != CharStream.EOF) {
+            input.consume();
+            input.substring(input.index() - 1, input.index() - 1);
+        }
+
+        new FileWriter(program).close();
+        input.seek(0);
+        assertEquals(CharStream.EOF, input.LA(1));
+    }
+
+    @Test
+    public void seekingBackRereadsDroppedCharacters() throws Exception {
+        File program = SyntheticProgram.write(20000);
+        String text = SyntheticProgram.generate(20000);
+
+        ChunkedFileStream input = new ChunkedFileStream(program.getPath());
+        while (input.LA(1) != CharStream.EOF) {
+            input.consume();
+            input.substring(input.index() - 1, input.index() - 1);
+        }
+
+        input.seek(10);
+        for (int i = 10; i < 100; i++) {
+            assertEquals(text.charAt(i), input.LA(1));
+            input.consume();
+        }
+    }
+
+    @Test
+    public void sizeFollowsRequestedLines() {
+        int lines = SyntheticProgram.generate(1600).split("\n").length;
+
+        assertTrue(Math.abs(lines - 1600) < 20);
+    }
+}
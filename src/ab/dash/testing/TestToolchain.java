@@ -0,0 +1,53 @@
+/** Toolchain tests. Pipelines stream their data between processes
+ *  and do not block on large outputs. **/
+
+package ab.dash.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ab.dash.Toolchain;
+
+public class TestToolchain extends BaseTest {
+
+    @Test
+    public void pipesLargeOutputThroughPipeline() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            input.append("line ").append(i).append('\n');
+        }
+
+        List<String[]> commands = new ArrayList<String[]>();
+        commands.add(new String[] {"cat"});
+        commands.add(new String[] {"tr", "l", "L"});
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode = Toolchain.run(commands, new ByteArrayInputStream(input.toString().getBytes()), out, err);
+
+        assertEquals(0, exitCode);
+        assertEquals(input.toString().replace('l', 'L'), out.toString());
+        assertEquals("", err.toString());
+    }
+
+    @Test
+    public void reportsFirstFailure() throws Exception {
+        List<String[]> commands = new ArrayList<String[]>();
+        commands.add(new String[] {"/bin/sh", "-c", "echo oops >&2; exit 3"});
+        commands.add(new String[] {"cat"});
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode = Toolchain.run(commands, new ByteArrayInputStream(new byte[0]), out, err);
+
+        assertEquals(3, exitCode);
+        assertTrue(err.toString().contains("oops"));
+    }
+}